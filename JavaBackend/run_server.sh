@@ -17,9 +17,11 @@ else
     echo "依赖库已存在。"
 fi
 
-# 2. 编译 Java 文件
-echo "正在编译 Server.java ..."
-javac -cp .:"$JAR_NAME" Server.java
+# 2. 编译 Java 文件（也可以用 mvn package 构建）
+BUILD_DIR="build/classes"
+echo "正在编译 src/main/java ..."
+mkdir -p "$BUILD_DIR"
+javac -encoding UTF-8 -d "$BUILD_DIR" -cp "$JAR_NAME" $(find src/main/java -name '*.java')
 if [ $? -ne 0 ]; then
     echo "编译失败！请检查代码错误。"
     exit 1
@@ -34,4 +36,4 @@ echo "请保持此终端窗口开启"
 echo "========================================"
 
 # 运行 Java 程序 (注意：Mac/Linux 使用 : 分隔 classpath)
-java -cp .:"$JAR_NAME" Server 8080
+java -cp "$BUILD_DIR":"$JAR_NAME" aurora.backend.Server 8080
@@ -0,0 +1,178 @@
+package aurora.backend;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 请求构建与响应解析的微基准
+ *
+ * 覆盖每次请求都会走的 JSON 路径：构建上游请求体、解析上游响应、解析 SSE 增量、读取客户端请求体。
+ * 带 legacy 前缀的方法是改造前的写法（整段读成 String 再建 DOM），用来和现有实现对比。
+ * 建议加 -prof gc 同时查看每次调用的分配量：
+ *   java -jar target/benchmarks.jar CodecBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    // 网页正文长度（字符数）
+    @Param({"2000", "20000"})
+    public int contentLength;
+
+    private String pageContent;
+    private JSONArray chatMessages;
+    private byte[] completionResponse;
+    private String ragFlowResponse;
+    private String deltaPayload;
+    private byte[] summariseRequest;
+
+    @Setup
+    public void setUp() {
+        pageContent = sampleText(contentLength);
+
+        chatMessages = new JSONArray();
+        for (int i = 0; i < 8; i++) {
+            JSONObject message = new JSONObject();
+            message.put("role", i % 2 == 0 ? "user" : "assistant");
+            message.put("content", sampleText(contentLength / 8));
+            chatMessages.put(message);
+        }
+
+        completionResponse = completionJson(sampleText(contentLength / 4)).getBytes(StandardCharsets.UTF_8);
+
+        JSONObject ragData = new JSONObject();
+        ragData.put("answer", sampleText(contentLength / 4));
+        ragData.put("reference", new JSONObject().put("chunks", new JSONArray()));
+        ragFlowResponse = new JSONObject().put("code", 0).put("data", ragData).toString();
+
+        JSONObject delta = new JSONObject().put("content", "这是一段增量文本 delta ");
+        JSONObject choice = new JSONObject().put("index", 0).put("delta", delta);
+        deltaPayload = new JSONObject().put("id", "chatcmpl-1").put("choices", new JSONArray().put(choice)).toString();
+
+        JSONObject request = new JSONObject();
+        request.put("content", pageContent);
+        request.put("url", "https://example.com/article");
+        request.put("apiKey", "sk-benchmark");
+        request.put("model", "Qwen/Qwen2.5-7B-Instruct");
+        summariseRequest = request.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // ---- 构建上游请求体 ----
+
+    @Benchmark
+    public String buildSummariseRequest() {
+        return Server.buildSiliconFlowRequest(Server.buildSummariseMessages(pageContent, "https://example.com"),
+            "Qwen/Qwen2.5-7B-Instruct", false).toString();
+    }
+
+    @Benchmark
+    public String buildChatRequest() {
+        return Server.buildSiliconFlowRequest(chatMessages, "Qwen/Qwen2.5-7B-Instruct", false).toString();
+    }
+
+    @Benchmark
+    public String buildRagFlowRequest() {
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("stream", false);
+        requestBody.put("messages", chatMessages);
+        requestBody.put("model", "ragflow");
+        return requestBody.toString();
+    }
+
+    // ---- 解析上游响应 ----
+
+    @Benchmark
+    public String legacyParseCompletion() throws IOException {
+        try (InputStream in = new ByteArrayInputStream(completionResponse)) {
+            String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            return new JSONObject(body)
+                .getJSONArray("choices")
+                .getJSONObject(0)
+                .getJSONObject("message")
+                .getString("content");
+        }
+    }
+
+    @Benchmark
+    public String streamParseCompletion() throws IOException {
+        return JsonCodec.extractMessageContent(new ByteArrayInputStream(completionResponse));
+    }
+
+    @Benchmark
+    public String parseRagFlowResponse() {
+        return Server.parseRagFlowResponse(ragFlowResponse);
+    }
+
+    @Benchmark
+    public String parseStreamDelta() {
+        return CompletionStream.extractDelta(deltaPayload);
+    }
+
+    // ---- 读取客户端请求体 ----
+
+    @Benchmark
+    public JSONObject legacyReadRequest() throws IOException {
+        try (InputStream in = new ByteArrayInputStream(summariseRequest)) {
+            return new JSONObject(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Benchmark
+    public JSONObject streamReadRequest() throws IOException {
+        try (InputStream in = new ByteArrayInputStream(summariseRequest)) {
+            return new JSONObject(new JSONTokener(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * 中英混排的测试文本，带转义字符，接近真实网页正文
+     */
+    static String sampleText(int length) {
+        String unit = "Aurora 网页总结服务 summarises pages \"quickly\"。\n";
+        StringBuilder sb = new StringBuilder(length + unit.length());
+        while (sb.length() < length) {
+            sb.append(unit);
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+
+    /**
+     * OpenAI 兼容的非流式 chat/completions 响应
+     */
+    static String completionJson(String content) {
+        JSONObject message = new JSONObject().put("role", "assistant").put("content", content);
+        JSONObject choice = new JSONObject().put("index", 0).put("message", message).put("finish_reason", "stop");
+        JSONObject usage = new JSONObject().put("prompt_tokens", 100).put("completion_tokens", 50).put("total_tokens", 150);
+        return new JSONObject()
+            .put("id", "chatcmpl-mock")
+            .put("object", "chat.completion")
+            .put("model", "mock")
+            .put("choices", new JSONArray().put(choice))
+            .put("usage", usage)
+            .toString();
+    }
+}
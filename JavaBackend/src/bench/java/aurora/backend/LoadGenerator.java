@@ -0,0 +1,263 @@
+package aurora.backend;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * 压测客户端：固定并发的闭环压测，输出吞吐量、延迟分位数和按状态码统计的错误数
+ *
+ * 参数（--name=value）：
+ *   --target=http://localhost:8080   服务端地址
+ *   --endpoint=/summarise            压测接口（/summarise、/chat、/summarise/stream、/chat/stream）
+ *   --concurrency=32                 并发数
+ *   --requests=1000                  请求总数（与 --duration-s 二选一）
+ *   --duration-s=0                   压测时长（秒），大于 0 时忽略 --requests
+ *   --provider=siliconflow           /chat 的提供商（siliconflow 或 ragflow）
+ *   --ragflow-base-url=              provider=ragflow 时的 RAGFlow 地址
+ *   --content-chars=2000             网页正文 / 消息长度
+ *   --distinct=0                     不同内容的数量，0 表示每个请求都不同（避开总结缓存和请求合并）
+ *   --keys=1                         轮流使用的 API Key 数（准入控制按 Key 限流）
+ *   --embedded                       在进程内启动模拟上游和服务端，其余参数同 MockUpstream
+ *   --sample-ms=0                    大于 0 时按该间隔抓取服务端 /metrics，输出执行模式、在途请求数峰值和平台线程数峰值
+ *
+ * 例如：
+ *   java -cp target/benchmarks.jar aurora.backend.LoadGenerator --embedded --latency-ms=300 --concurrency=64
+ *
+ * 大量在途上游调用、少量载体线程（对比 executor.mode）：上游慢、并发远大于 CPU 核数，
+ * virtual 模式下平台线程数应基本不随并发增长，pool 模式下在途请求数被线程数卡住、其余排队或返回 503：
+ *   java -Daurora.executor.mode=virtual -Djdk.virtualThreadScheduler.parallelism=2 \
+ *        -cp target/benchmarks.jar aurora.backend.LoadGenerator --embedded --latency-ms=2000 --jitter-ms=0 \
+ *        --concurrency=1000 --duration-s=30 --keys=100 --sample-ms=250
+ *   把 -Daurora.executor.mode 换成 pool 或 dispatcher 再跑一次对比；virtual 需要 JDK 21+，
+ *   低版本会自动改用 pool，输出里的执行模式就是实际生效的模式。--embedded 时平台线程数包含压测客户端自己的
+ *   --concurrency 个线程，要看干净的数字就把服务端单独启动，用 --target 指过去
+ */
+public final class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = MockUpstream.parseArgs(args);
+        String target = options.getOrDefault("target", "http://localhost:8080");
+        String endpoint = options.getOrDefault("endpoint", "/summarise");
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "32"));
+        int requests = Integer.parseInt(options.getOrDefault("requests", "1000"));
+        long durationSeconds = Long.parseLong(options.getOrDefault("duration-s", "0"));
+        String provider = options.getOrDefault("provider", "siliconflow");
+        String ragflowBaseUrl = options.getOrDefault("ragflow-base-url", "");
+        int contentChars = Integer.parseInt(options.getOrDefault("content-chars", "2000"));
+        int distinct = Integer.parseInt(options.getOrDefault("distinct", "0"));
+        int keys = Math.max(1, Integer.parseInt(options.getOrDefault("keys", "1")));
+        long sampleMillis = Long.parseLong(options.getOrDefault("sample-ms", "0"));
+
+        MockUpstream mock = null;
+        if (options.containsKey("embedded")) {
+            // 必须在 Server 类初始化之前设置上游地址
+            mock = MockUpstream.start(0, MockUpstream.Options.parse(options));
+            System.setProperty("aurora.upstream.siliconflow.url", mock.baseUrl() + "/v1/chat/completions");
+            int serverPort = Integer.parseInt(options.getOrDefault("server-port", "18080"));
+            Server.main(new String[] { String.valueOf(serverPort) });
+            target = "http://127.0.0.1:" + serverPort;
+            if (ragflowBaseUrl.isEmpty()) {
+                ragflowBaseUrl = mock.baseUrl();
+            }
+        }
+
+        String baseContent = CodecBenchmark.sampleText(contentChars);
+        String finalRagflowBaseUrl = ragflowBaseUrl;
+        URI uri = URI.create(target + endpoint);
+        HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+        Histogram latency = new Histogram();
+        LongAccumulator maxLatency = new LongAccumulator(Math::max, 0);
+        Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+        AtomicInteger issued = new AtomicInteger();
+        long deadline = durationSeconds > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds) : Long.MAX_VALUE;
+
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread t = new Thread(r, "load-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        System.out.println("压测 " + uri + "，并发 " + concurrency
+            + (durationSeconds > 0 ? "，时长 " + durationSeconds + "s" : "，请求数 " + requests));
+        MetricsSampler sampler = sampleMillis > 0 ? MetricsSampler.start(client, target, sampleMillis) : null;
+        long started = System.nanoTime();
+        for (int w = 0; w < concurrency; w++) {
+            workers.execute(() -> {
+                while (true) {
+                    int seq = issued.getAndIncrement();
+                    if (durationSeconds > 0 ? System.nanoTime() >= deadline : seq >= requests) {
+                        return;
+                    }
+                    String variant = String.valueOf(distinct > 0 ? seq % distinct : seq);
+                    String apiKey = "sk-load-test-" + (seq % keys);
+                    String body = requestBody(endpoint, provider, finalRagflowBaseUrl, apiKey, baseContent, variant);
+                    HttpRequest request = HttpRequest.newBuilder(uri)
+                        .timeout(Duration.ofSeconds(120))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(body))
+                        .build();
+                    long start = System.nanoTime();
+                    String outcome;
+                    try {
+                        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                        outcome = response.statusCode() == 200 ? null : String.valueOf(response.statusCode());
+                    } catch (Exception e) {
+                        outcome = e.getClass().getSimpleName();
+                    }
+                    long micros = (System.nanoTime() - start) / 1000;
+                    if (outcome == null) {
+                        latency.record(micros);
+                        maxLatency.accumulate(micros);
+                    } else {
+                        failures.computeIfAbsent(outcome, k -> new LongAdder()).increment();
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(365, TimeUnit.DAYS);
+        double elapsedSeconds = (System.nanoTime() - started) / 1e9;
+        if (sampler != null) {
+            sampler.stop();
+        }
+
+        long ok = latency.getCount();
+        long failed = failures.values().stream().mapToLong(LongAdder::sum).sum();
+        System.out.printf("完成 %d 个请求（成功 %d，失败 %d），耗时 %.2fs，吞吐 %.1f req/s%n",
+            ok + failed, ok, failed, elapsedSeconds, (ok + failed) / elapsedSeconds);
+        if (ok > 0) {
+            // 分位数取桶上界，不超过实际最大值
+            long max = maxLatency.get();
+            System.out.printf("延迟(ms): mean=%.1f p50=%.1f p90=%.1f p99=%.1f max=%.1f%n",
+                latency.getSum() / (double) ok / 1000.0,
+                Math.min(latency.quantile(0.50), max) / 1000.0, Math.min(latency.quantile(0.90), max) / 1000.0,
+                Math.min(latency.quantile(0.99), max) / 1000.0, max / 1000.0);
+        }
+        if (failed > 0) {
+            Map<String, Long> sorted = new TreeMap<>();
+            failures.forEach((k, v) -> sorted.put(k, v.sum()));
+            System.out.println("失败: " + sorted);
+        }
+        if (sampler != null) {
+            System.out.println(sampler.summary());
+        }
+        if (mock != null) {
+            System.out.println("上游实际请求数: " + mock.getRequests() + "，重试 " + Resilience.getRetries()
+                + "，对冲 " + Resilience.getHedges() + "（对冲先返回 " + Resilience.getHedgeWins() + "）");
+            System.exit(0);
+        }
+    }
+
+    /**
+     * 按接口构造请求体；variant 拼进内容里，用来控制请求之间是否相同
+     */
+    private static String requestBody(String endpoint, String provider, String ragflowBaseUrl, String apiKey,
+            String content, String variant) {
+        JSONObject body = new JSONObject();
+        body.put("apiKey", apiKey);
+        body.put("model", "Qwen/Qwen2.5-7B-Instruct");
+        if (endpoint.startsWith("/chat")) {
+            JSONObject message = new JSONObject().put("role", "user").put("content", variant + " " + content);
+            body.put("messages", new JSONArray().put(message));
+            body.put("provider", provider);
+            body.put("ragflowApiKey", apiKey);
+            body.put("ragflowBaseUrl", ragflowBaseUrl);
+        } else {
+            body.put("content", variant + " " + content);
+            body.put("url", "https://example.com/" + variant);
+        }
+        return body.toString();
+    }
+
+    /**
+     * 压测期间定时抓取服务端 /metrics，记录执行器在途请求数和平台线程数的峰值
+     */
+    private static final class MetricsSampler implements Runnable {
+
+        private final HttpClient client;
+        private final URI uri;
+        private final long intervalMillis;
+        private final Thread thread;
+        private volatile boolean running = true;
+        private volatile String mode = "?";
+        private long samples;
+        private long peakInFlight;
+        private long peakThreads;
+
+        private MetricsSampler(HttpClient client, String target, long intervalMillis) {
+            this.client = client;
+            this.uri = URI.create(target + "/metrics");
+            this.intervalMillis = intervalMillis;
+            this.thread = new Thread(this, "load-metrics");
+            this.thread.setDaemon(true);
+        }
+
+        static MetricsSampler start(HttpClient client, String target, long intervalMillis) {
+            MetricsSampler sampler = new MetricsSampler(client, target, intervalMillis);
+            sampler.thread.start();
+            return sampler;
+        }
+
+        @Override
+        public void run() {
+            HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(5)).GET().build();
+            while (running) {
+                try {
+                    String body = client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+                    synchronized (this) {
+                        samples++;
+                        for (String line : body.split("\n")) {
+                            if (line.startsWith("aurora_executor_in_flight{")) {
+                                int start = line.indexOf("mode=\"") + 6;
+                                mode = line.substring(start, line.indexOf('"', start));
+                                peakInFlight = Math.max(peakInFlight, value(line));
+                            } else if (line.startsWith("aurora_jvm_platform_threads ")) {
+                                peakThreads = Math.max(peakThreads, value(line));
+                            }
+                        }
+                    }
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    // 服务端过载时抓取失败本身也是结果的一部分，跳过这次采样
+                }
+            }
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            thread.interrupt();
+            thread.join();
+        }
+
+        synchronized String summary() {
+            return "服务端（" + samples + " 次采样）: 执行模式 " + mode + "，执行器在途请求峰值 " + peakInFlight
+                + "，平台线程峰值 " + peakThreads;
+        }
+
+        private static long value(String line) {
+            return (long) Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1).trim());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package aurora.backend;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 请求线程上的日志开销
+ *
+ * legacy 前缀的方法是改造前的写法：在请求线程上拼接字符串并 println（PrintStream 内部加锁、编码、写出）。
+ * 输出都丢弃，所以这里只比较请求线程付出的代价；legacy 写法在真实的标准输出 / 磁盘上还要再加上 IO 时间。
+ * 4 个线程并发调用，用来体现 println 的锁竞争。后台线程跟不上时 EventLog 会丢弃日志，
+ * 这部分也是请求线程的真实开销，可以在结果里看 dropped 计数。
+ *   java -jar target/benchmarks.jar LoggingBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class LoggingBenchmark {
+
+    // 上游响应体长度（字符数）
+    @Param({"200", "20000"})
+    public int bodyLength;
+
+    private String responseBody;
+    private PrintStream legacyOut;
+    private EventLog eventLog;
+
+    @Setup
+    public void setUp() {
+        responseBody = CodecBenchmark.completionJson(CodecBenchmark.sampleText(bodyLength));
+        legacyOut = new PrintStream(OutputStream.nullOutputStream(), false);
+        eventLog = new EventLog(EventLog.Level.INFO, OutputStream.nullOutputStream(), 8192, 512,
+            true, 1, 10_000, 1, 512, 20);
+    }
+
+    @TearDown
+    public void tearDown() {
+        eventLog.flush();
+        System.out.println("\nEventLog written=" + eventLog.getWritten() + " dropped=" + eventLog.getDropped());
+    }
+
+    // ---- 每次 RAGFlow 调用打印完整响应 ----
+
+    @Benchmark
+    public void legacyPrintResponse() {
+        legacyOut.println("RAGFlow Response: " + responseBody);
+    }
+
+    @Benchmark
+    public void eventLogResponse() {
+        eventLog.log(EventLog.Level.INFO, "ragflow.response", null, "status", 200, "body", responseBody);
+    }
+
+    /**
+     * 实际配置：响应体是 DEBUG 日志，默认级别下只有一次比较
+     */
+    @Benchmark
+    public void eventLogResponseDisabled() {
+        eventLog.log(EventLog.Level.DEBUG, "ragflow.response", null, "status", 200, "body", responseBody);
+    }
+
+    // ---- 每个请求一条访问日志 ----
+
+    @Benchmark
+    public void eventLogAccess() {
+        eventLog.access("POST", "/summarise", 200, 1234, 2048, 512, "siliconflow", "Qwen/Qwen2.5-7B-Instruct");
+    }
+}
@@ -0,0 +1,256 @@
+package aurora.backend;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 本地模拟上游，压测时代替硅基流动和 RAGFlow
+ *
+ * 接口：
+ *   POST /v1/chat/completions                           硅基流动（stream=true 时按 SSE 分段返回）
+ *   GET  /api/v1/chats、/api/v1/agents                  RAGFlow Chat / Agent 发现
+ *   POST /api/v1/chats_openai/{id}/chat/completions      RAGFlow OpenAI 兼容对话
+ *
+ * 参数（--name=value）：
+ *   --port=9090                 监听端口
+ *   --latency-ms=200            基础延迟（流式时为首包延迟）
+ *   --jitter-ms=50              延迟随机抖动上限
+ *   --spike-rate=0              出现延迟尖刺的比例（0~1）
+ *   --spike-ms=2000             尖刺额外延迟
+ *   --error-rate=0              返回错误的比例（0~1）
+ *   --error-status=503          错误状态码
+ *   --stream-chunks=20          流式响应的分段数
+ *   --chunk-interval-ms=20      流式分段间隔
+ *   --reply-chars=400           回复长度（字符数）
+ *   --gzip                      客户端带 Accept-Encoding: gzip 时压缩非流式响应（gzip 请求体总是可以解压）
+ *
+ * 使用：先启动模拟上游，再把服务端的上游地址指向它
+ *   java -cp target/benchmarks.jar aurora.backend.MockUpstream --port=9090 --latency-ms=300
+ *   java -Daurora.upstream.siliconflow.url=http://localhost:9090/v1/chat/completions -cp ... aurora.backend.Server 8080
+ */
+public final class MockUpstream {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Options options;
+    private final LongAdder requests = new LongAdder();
+
+    private MockUpstream(HttpServer server, ExecutorService executor, Options options) {
+        this.server = server;
+        this.executor = executor;
+        this.options = options;
+    }
+
+    /**
+     * 启动模拟上游；port 为 0 时随机分配端口
+     */
+    public static MockUpstream start(int port, Options options) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 256);
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "mock-upstream-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        MockUpstream mock = new MockUpstream(server, executor, options);
+        server.createContext("/v1/chat/completions", mock::handleCompletion);
+        server.createContext("/api/v1/chats_openai/", mock::handleCompletion);
+        server.createContext("/api/v1/chats", exchange -> mock.handleList(exchange, "mock-chat"));
+        server.createContext("/api/v1/agents", exchange -> mock.handleList(exchange, "mock-agent"));
+        server.setExecutor(executor);
+        server.start();
+        return mock;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + getPort();
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handleCompletion(HttpExchange exchange) throws IOException {
+        requests.increment();
+        try (exchange) {
+            JSONObject request;
+            InputStream requestBody = exchange.getRequestBody();
+            if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                requestBody = new GZIPInputStream(requestBody);
+            }
+            try (InputStream in = requestBody) {
+                request = new JSONObject(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            sleep(delayMillis());
+
+            if (ThreadLocalRandom.current().nextDouble() < options.errorRate) {
+                byte[] body = new JSONObject().put("error", "mock failure").toString().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(options.errorStatus, body.length);
+                exchange.getResponseBody().write(body);
+                return;
+            }
+
+            String text = CodecBenchmark.sampleText(options.replyChars);
+            if (request.optBoolean("stream", false)) {
+                streamReply(exchange, text);
+            } else {
+                byte[] reply = CodecBenchmark.completionJson(text).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                if (options.gzip && accept != null && accept.contains("gzip")) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                    exchange.sendResponseHeaders(200, 0);
+                    try (OutputStream out = new GZIPOutputStream(exchange.getResponseBody())) {
+                        out.write(reply);
+                    }
+                } else {
+                    exchange.sendResponseHeaders(200, reply.length);
+                    exchange.getResponseBody().write(reply);
+                }
+            }
+        } catch (Exception e) {
+            // 客户端断开或请求体不是 JSON，直接结束本次交换
+        }
+    }
+
+    private void streamReply(HttpExchange exchange, String reply) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        int chunks = Math.max(1, options.streamChunks);
+        int step = Math.max(1, (reply.length() + chunks - 1) / chunks);
+        for (int start = 0; start < reply.length(); start += step) {
+            String piece = reply.substring(start, Math.min(reply.length(), start + step));
+            JSONObject delta = new JSONObject().put("content", piece);
+            JSONObject choice = new JSONObject().put("index", 0).put("delta", delta);
+            JSONObject event = new JSONObject().put("id", "chatcmpl-mock").put("choices", new JSONArray().put(choice));
+            out.write(("data: " + event + "\n\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            sleep(options.chunkIntervalMs);
+        }
+        out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private void handleList(HttpExchange exchange, String id) throws IOException {
+        requests.increment();
+        try (exchange) {
+            JSONObject item = new JSONObject().put("id", id).put("name", id);
+            byte[] body = new JSONObject().put("code", 0).put("data", new JSONArray().put(item))
+                .toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    private long delayMillis() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = options.latencyMs;
+        if (options.jitterMs > 0) {
+            delay += random.nextLong(options.jitterMs + 1);
+        }
+        if (random.nextDouble() < options.spikeRate) {
+            delay += options.spikeMs;
+        }
+        return delay;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 模拟上游的行为参数
+     */
+    public static final class Options {
+        public long latencyMs = 200;
+        public long jitterMs = 50;
+        public double spikeRate = 0;
+        public long spikeMs = 2000;
+        public double errorRate = 0;
+        public int errorStatus = 503;
+        public int streamChunks = 20;
+        public long chunkIntervalMs = 20;
+        public int replyChars = 400;
+        public boolean gzip;
+
+        static Options parse(Map<String, String> args) {
+            Options o = new Options();
+            o.latencyMs = Long.parseLong(args.getOrDefault("latency-ms", String.valueOf(o.latencyMs)));
+            o.jitterMs = Long.parseLong(args.getOrDefault("jitter-ms", String.valueOf(o.jitterMs)));
+            o.spikeRate = Double.parseDouble(args.getOrDefault("spike-rate", String.valueOf(o.spikeRate)));
+            o.spikeMs = Long.parseLong(args.getOrDefault("spike-ms", String.valueOf(o.spikeMs)));
+            o.errorRate = Double.parseDouble(args.getOrDefault("error-rate", String.valueOf(o.errorRate)));
+            o.errorStatus = Integer.parseInt(args.getOrDefault("error-status", String.valueOf(o.errorStatus)));
+            o.streamChunks = Integer.parseInt(args.getOrDefault("stream-chunks", String.valueOf(o.streamChunks)));
+            o.chunkIntervalMs = Long.parseLong(args.getOrDefault("chunk-interval-ms", String.valueOf(o.chunkIntervalMs)));
+            o.replyChars = Integer.parseInt(args.getOrDefault("reply-chars", String.valueOf(o.replyChars)));
+            o.gzip = Boolean.parseBoolean(args.getOrDefault("gzip", String.valueOf(o.gzip)));
+            return o;
+        }
+    }
+
+    /**
+     * 解析 --name=value 形式的命令行参数
+     */
+    static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("参数格式应为 --name=value: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        return options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> parsed = parseArgs(args);
+        int port = Integer.parseInt(parsed.getOrDefault("port", "9090"));
+        MockUpstream mock = start(port, Options.parse(parsed));
+        System.out.println("模拟上游已启动: " + mock.baseUrl());
+        System.out.println("硅基流动地址: " + mock.baseUrl() + "/v1/chat/completions");
+        System.out.println("RAGFlow Base URL: " + mock.baseUrl());
+    }
+}
@@ -0,0 +1,388 @@
+package aurora.backend;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 准入控制 - 在调用上游之前按 API Key 和提供商限流、限并发
+ *
+ * 每个 API Key（按摘要区分）和每个提供商各有一组限制：
+ *   - 令牌桶：限制平均速率和突发量，令牌不足时立即拒绝，Retry-After 为攒够一个令牌所需的时间
+ *   - 并发上限：同时在途的请求数，满了以后最多排队 queue.size 个请求、每个最多等 queue.max-wait-ms，
+ *     队列已满或等待超时立即拒绝
+ * 拒绝时抛出 429 的 HttpStatusException，不占用线程等上游超时。
+ *
+ * 配置项（<scope> 为 key 或 provider.<提供商>，例如 provider.siliconflow）：
+ *   admission.enabled               是否启用，默认 true
+ *   admission.<scope>.rate          每秒补充的令牌数，0 表示不限速
+ *   admission.<scope>.burst         令牌桶容量
+ *   admission.<scope>.max-in-flight 最大并发数，0 表示不限
+ *   admission.queue.size            每个限制的排队上限，默认 16
+ *   admission.queue.max-wait-ms     排队最长等待时间，默认 2000
+ *   admission.max-keys              保留状态的 API Key 数上限，默认 10000（硬上限）
+ *
+ * Key 的状态按最近使用顺序保存；达到上限时从最久未用的几个 Key 里淘汰一个空闲的
+ * （没有在途请求、令牌桶已满，状态和新建时一样），找不到空闲的 Key 时拒绝新 Key 的请求，
+ * 而不是继续增长或丢掉仍在限流中的状态。
+ */
+public final class AdmissionController {
+
+    private static final AdmissionController SHARED = fromConfig();
+
+    private final boolean enabled;
+    private final LimitConfig keyConfig;
+    private final Map<UpstreamClient.Provider, Limiter> providers = new EnumMap<>(UpstreamClient.Provider.class);
+    // 按访问顺序排列，最久未用的在最前；所有读写都在 keys 上同步
+    private final LinkedHashMap<String, Limiter> keys = new LinkedHashMap<>(16, 0.75f, true);
+    private final int queueSize;
+    private final long maxWaitNanos;
+    private final int maxKeys;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejectedRate = new LongAdder();
+    private final LongAdder rejectedConcurrency = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder rejectedKeys = new LongAdder();
+
+    // 达到上限时最多检查的最久未用 Key 数，保证新 Key 的开销是常数
+    private static final int EVICTION_SCAN = 8;
+
+    AdmissionController(boolean enabled, LimitConfig keyConfig, Map<UpstreamClient.Provider, LimitConfig> providerConfigs,
+            int queueSize, long maxWaitMillis, int maxKeys) {
+        this.enabled = enabled;
+        this.keyConfig = keyConfig;
+        this.queueSize = Math.max(0, queueSize);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+        this.maxKeys = Math.max(1, maxKeys);
+        for (Map.Entry<UpstreamClient.Provider, LimitConfig> entry : providerConfigs.entrySet()) {
+            providers.put(entry.getKey(), new Limiter(entry.getValue()));
+        }
+    }
+
+    public static AdmissionController shared() {
+        return SHARED;
+    }
+
+    private static AdmissionController fromConfig() {
+        Map<UpstreamClient.Provider, LimitConfig> providerConfigs = new EnumMap<>(UpstreamClient.Provider.class);
+        for (UpstreamClient.Provider provider : UpstreamClient.Provider.values()) {
+            providerConfigs.put(provider, LimitConfig.fromConfig("provider." + provider.id(), 50, 100, 64));
+        }
+        return new AdmissionController(
+            ServerConfig.getBoolean("admission.enabled", true),
+            LimitConfig.fromConfig("key", 5, 10, 4),
+            providerConfigs,
+            ServerConfig.getInt("admission.queue.size", 16),
+            ServerConfig.getLong("admission.queue.max-wait-ms", 2000),
+            ServerConfig.getInt("admission.max-keys", 10_000));
+    }
+
+    /**
+     * 申请一次上游调用的许可，调用结束后必须 close
+     * @throws HttpStatusException 429，被限速或并发已满
+     */
+    public Permit acquire(UpstreamClient.Provider provider, String apiKey) throws HttpStatusException, InterruptedException {
+        return acquire(provider, apiKey, 0);
+    }
+
+    /**
+     * 申请许可，令牌不足时等待补充而不是立即拒绝（用于已经整体放行的批量请求里的各篇网页）
+     * @param maxTokenWaitMillis 等令牌的最长时间，攒够令牌所需的时间超过剩余时间时仍然拒绝
+     * @throws HttpStatusException 429，等待超时或并发已满
+     */
+    public Permit acquire(UpstreamClient.Provider provider, String apiKey, long maxTokenWaitMillis)
+            throws HttpStatusException, InterruptedException {
+        if (!enabled) {
+            return Permit.NONE;
+        }
+        long tokenDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxTokenWaitMillis));
+        Limiter keyLimiter = pinKeyLimiter(provider, apiKey);
+        try {
+            Limiter providerLimiter = providers.get(provider);
+
+            // 先检查速率（默认不等待），再申请并发名额（可能短暂排队）
+            takeToken(keyLimiter, "当前 API Key 请求过于频繁，请稍后重试", tokenDeadline);
+            try {
+                takeToken(providerLimiter, "服务繁忙，请稍后重试", tokenDeadline);
+            } catch (HttpStatusException | InterruptedException e) {
+                // 被提供商限速的请求不计入该 Key 的速率
+                keyLimiter.refundToken();
+                throw e;
+            }
+
+            enter(keyLimiter, "当前 API Key 并发请求过多，请稍后重试");
+            try {
+                enter(providerLimiter, "服务繁忙，请稍后重试");
+            } catch (HttpStatusException | InterruptedException e) {
+                keyLimiter.release();
+                throw e;
+            }
+            admitted.increment();
+            return new Permit(keyLimiter, providerLimiter);
+        } finally {
+            unpin(keyLimiter);
+        }
+    }
+
+    /**
+     * 取出（必要时创建）Key 的限制器并固定住，固定期间不会被淘汰，
+     * 避免同一个 Key 同时存在两个限制器、限额翻倍
+     * @throws HttpStatusException 429，Key 数已达上限且没有可以淘汰的空闲 Key
+     */
+    private Limiter pinKeyLimiter(UpstreamClient.Provider provider, String apiKey) throws HttpStatusException {
+        String id = provider.id() + ":" + Hashing.keyId(apiKey);
+        synchronized (keys) {
+            Limiter limiter = keys.get(id);
+            if (limiter == null) {
+                if (keys.size() >= maxKeys && !evictIdleKey(System.nanoTime())) {
+                    rejectedKeys.increment();
+                    throw new HttpStatusException(429, "服务繁忙，请稍后重试", 1);
+                }
+                limiter = new Limiter(keyConfig);
+                keys.put(id, limiter);
+            }
+            limiter.pins++;
+            return limiter;
+        }
+    }
+
+    private void unpin(Limiter limiter) {
+        synchronized (keys) {
+            limiter.pins--;
+        }
+    }
+
+    /**
+     * 在最久未用的几个 Key 里淘汰一个未被固定的空闲 Key，调用方持有 keys 的锁
+     * @return 是否腾出了位置
+     */
+    private boolean evictIdleKey(long now) {
+        Iterator<Limiter> it = keys.values().iterator();
+        for (int i = 0; i < EVICTION_SCAN && it.hasNext(); i++) {
+            Limiter candidate = it.next();
+            if (candidate.pins == 0 && candidate.isIdle(now)) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 取一个令牌；不够时在 deadline 之前能攒够就等，否则拒绝
+     */
+    private void takeToken(Limiter limiter, String message, long deadline)
+            throws HttpStatusException, InterruptedException {
+        boolean waited = false;
+        while (true) {
+            long waitNanos = limiter.tryTakeToken();
+            if (waitNanos <= 0) {
+                return;
+            }
+            if (System.nanoTime() + waitNanos > deadline) {
+                rejectedRate.increment();
+                throw new HttpStatusException(429, message, retryAfterSeconds(waitNanos));
+            }
+            if (!waited) {
+                queued.increment();
+                waited = true;
+            }
+            // 别的线程可能先拿走补充的令牌，醒来后重新检查
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private void enter(Limiter limiter, String message) throws HttpStatusException, InterruptedException {
+        if (limiter.slots == null || limiter.slots.tryAcquire()) {
+            return;
+        }
+        // 并发已满：排队名额也满了就直接拒绝
+        if (limiter.waiting.incrementAndGet() > queueSize) {
+            limiter.waiting.decrementAndGet();
+            rejectedConcurrency.increment();
+            throw new HttpStatusException(429, message, 1);
+        }
+        queued.increment();
+        try {
+            if (!limiter.slots.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)) {
+                rejectedConcurrency.increment();
+                throw new HttpStatusException(429, message, 1);
+            }
+        } finally {
+            limiter.waiting.decrementAndGet();
+        }
+    }
+
+    private static long retryAfterSeconds(long waitNanos) {
+        return Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    public long getRejectedRate() {
+        return rejectedRate.sum();
+    }
+
+    public long getRejectedConcurrency() {
+        return rejectedConcurrency.sum();
+    }
+
+    /**
+     * Key 数已达上限、又没有可淘汰的空闲 Key 而拒绝的请求数
+     */
+    public long getRejectedKeys() {
+        return rejectedKeys.sum();
+    }
+
+    /**
+     * 进入过等待队列（或等待令牌）的请求数（最终可能被放行，也可能超时被拒绝）
+     */
+    public long getQueued() {
+        return queued.sum();
+    }
+
+    /**
+     * 当前保留状态的 API Key 数
+     */
+    public int getTrackedKeys() {
+        synchronized (keys) {
+            return keys.size();
+        }
+    }
+
+    /**
+     * 某个提供商当前在途的请求数
+     */
+    public int getInFlight(UpstreamClient.Provider provider) {
+        return providers.get(provider).inFlight();
+    }
+
+    /**
+     * 一次上游调用的许可，close 时归还并发名额（重复 close 无副作用）
+     */
+    public static final class Permit implements AutoCloseable {
+
+        static final Permit NONE = new Permit(null, null);
+
+        private Limiter keyLimiter;
+        private Limiter providerLimiter;
+
+        private Permit(Limiter keyLimiter, Limiter providerLimiter) {
+            this.keyLimiter = keyLimiter;
+            this.providerLimiter = providerLimiter;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (providerLimiter != null) {
+                providerLimiter.release();
+                providerLimiter = null;
+            }
+            if (keyLimiter != null) {
+                keyLimiter.release();
+                keyLimiter = null;
+            }
+        }
+    }
+
+    /**
+     * 一组限制的参数
+     */
+    static final class LimitConfig {
+        final double ratePerSecond;
+        final double burst;
+        final int maxInFlight;
+
+        LimitConfig(double ratePerSecond, double burst, int maxInFlight) {
+            this.ratePerSecond = ratePerSecond;
+            this.burst = Math.max(1, burst);
+            this.maxInFlight = maxInFlight;
+        }
+
+        static LimitConfig fromConfig(String scope, int defaultRate, int defaultBurst, int defaultMaxInFlight) {
+            String prefix = "admission." + scope + ".";
+            return new LimitConfig(
+                ServerConfig.getInt(prefix + "rate", defaultRate),
+                ServerConfig.getInt(prefix + "burst", defaultBurst),
+                ServerConfig.getInt(prefix + "max-in-flight", defaultMaxInFlight));
+        }
+    }
+
+    /**
+     * 令牌桶 + 并发名额
+     */
+    private static final class Limiter {
+        private final LimitConfig config;
+        private final Semaphore slots;
+        private final AtomicInteger waiting = new AtomicInteger();
+        // 正在 acquire 中使用它的线程数，由 AdmissionController.keys 的锁保护
+        private int pins;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        Limiter(LimitConfig config) {
+            this.config = config;
+            this.slots = config.maxInFlight > 0 ? new Semaphore(config.maxInFlight) : null;
+            this.tokens = config.burst;
+        }
+
+        /**
+         * 取一个令牌
+         * @return 0 表示成功，否则为攒够一个令牌还需要的纳秒数
+         */
+        synchronized long tryTakeToken() {
+            if (config.ratePerSecond <= 0) {
+                return 0;
+            }
+            refill(System.nanoTime());
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / config.ratePerSecond * 1e9);
+        }
+
+        synchronized void refundToken() {
+            if (config.ratePerSecond > 0) {
+                tokens = Math.min(config.burst, tokens + 1);
+            }
+        }
+
+        private void refill(long now) {
+            long elapsed = now - refilledAt;
+            if (elapsed > 0) {
+                tokens = Math.min(config.burst, tokens + elapsed * config.ratePerSecond / 1e9);
+                refilledAt = now;
+            }
+        }
+
+        void release() {
+            if (slots != null) {
+                slots.release();
+            }
+        }
+
+        int inFlight() {
+            return slots == null ? 0 : config.maxInFlight - slots.availablePermits();
+        }
+
+        synchronized boolean isIdle(long now) {
+            if (inFlight() > 0 || waiting.get() > 0) {
+                return false;
+            }
+            if (config.ratePerSecond <= 0) {
+                return true;
+            }
+            refill(now);
+            return tokens >= config.burst;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package aurora.backend;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * 批量总结（/summarise/batch）
+ *
+ * 一次请求带多篇网页，以有限并发逐篇调用总结服务（先查总结缓存），
+ * 每篇完成后立即按完成顺序回调结果，慢的网页不会拖住其他网页的结果。
+ * 单篇失败只影响这一篇的结果行。
+ * 每篇需要调用上游时单独做一次准入检查（和单篇 /summarise 一样计入该 Key 的速率 / 并发限制），
+ * 令牌不足时等待补充（最多 summary.batch.admission-wait-ms），而不是让超过突发量的网页直接失败；
+ * 等待超时或并发排队失败的网页以 429 结果行返回。
+ *
+ * 配置项：
+ *   summary.batch.max-items          每个请求最多的网页数，默认 50
+ *   summary.batch.parallelism        同一个批次同时进行的总结数上限，默认 4（请求里的 parallelism 不能超过它）
+ *   summary.batch.max-threads        所有批次合计同时进行的总结数（线程池大小），默认 CPU 核数 * 4，超出的排队
+ *   summary.batch.admission-wait-ms  每篇网页等待速率令牌的最长时间，默认 60000
+ */
+public final class BatchSummariser {
+
+    /**
+     * 单篇结果回调，只会在调用 summarise 的线程上触发
+     */
+    @FunctionalInterface
+    public interface ResultListener {
+        void onResult(JSONObject result) throws IOException;
+    }
+
+    /**
+     * 一篇待总结的网页
+     */
+    public static final class Item {
+        final int index;
+        final String id;
+        final String content;
+        final String url;
+
+        Item(int index, String id, String content, String url) {
+            this.index = index;
+            this.id = id;
+            this.content = content;
+            this.url = url;
+        }
+    }
+
+    public static final int MAX_ITEMS = ServerConfig.getInt("summary.batch.max-items", 50);
+    public static final int MAX_PARALLELISM = Math.max(1, ServerConfig.getInt("summary.batch.parallelism", 4));
+
+    private static final int MAX_THREADS = Math.max(1, ServerConfig.getInt("summary.batch.max-threads",
+        Runtime.getRuntime().availableProcessors() * 4));
+    private static final long ADMISSION_WAIT_MS = ServerConfig.getLong("summary.batch.admission-wait-ms", 60_000);
+
+    // 固定上限的线程池：每个批次最多挂 MAX_PARALLELISM 篇，多个批次的网页在这里排队
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    private static final ExecutorService BATCH_EXECUTOR = newBatchExecutor();
+
+    private BatchSummariser() {
+    }
+
+    private static ExecutorService newBatchExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "aurora-batch-" + THREAD_COUNTER.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 解析请求里的 items：[{"content": "...", "url": "...", "id": "..."}]
+     * @throws HttpStatusException 400 缺少 items 或某一项没有 content，413 超过 summary.batch.max-items
+     */
+    public static List<Item> parseItems(JSONObject request) throws HttpStatusException {
+        JSONArray array = request.optJSONArray("items");
+        if (array == null || array.isEmpty()) {
+            throw new HttpStatusException(400, "items 不能为空");
+        }
+        if (array.length() > MAX_ITEMS) {
+            throw new HttpStatusException(413, "单次最多总结 " + MAX_ITEMS + " 篇网页");
+        }
+        List<Item> items = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject item = array.optJSONObject(i);
+            if (item == null || !item.has("content")) {
+                throw new HttpStatusException(400, "第 " + i + " 项缺少 content");
+            }
+            items.add(new Item(i, item.optString("id", null), item.getString("content"), item.optString("url", "")));
+        }
+        return items;
+    }
+
+    /**
+     * 以有限并发总结所有网页，每篇完成后回调一次结果
+     * 结果格式：{"index": 序号, "id": 调用方传入的 id, "url": ..., "summary": ..., "cached": ..., "stats": ..., "success": true}
+     * 失败时为 {"index": ..., "success": false, "error": ..., "status": 状态码}
+     * 回调抛出 IOException（客户端已断开）时取消尚未完成的网页
+     * @param parallelism 请求的并发数，会被限制在 1 到 summary.batch.parallelism 之间
+     * @return 成功的篇数
+     */
+    public static int summarise(List<Item> items, String apiKey, String model, int parallelism,
+            ResultListener listener) throws IOException, InterruptedException {
+        int limit = Math.max(1, Math.min(parallelism, MAX_PARALLELISM));
+        CompletionService<JSONObject> completion = new ExecutorCompletionService<>(BATCH_EXECUTOR);
+        List<Future<JSONObject>> futures = new ArrayList<>(items.size());
+        int next = 0;
+        int succeeded = 0;
+        try {
+            while (next < items.size() && next < limit) {
+                Item item = items.get(next++);
+                futures.add(completion.submit(() -> summariseItem(item, apiKey, model)));
+            }
+            for (int done = 0; done < items.size(); done++) {
+                JSONObject result;
+                try {
+                    result = completion.take().get();
+                } catch (ExecutionException e) {
+                    // summariseItem 已经处理了所有异常，这里只会是 Error
+                    throw new IllegalStateException(e.getCause());
+                }
+                // 腾出一个名额就补一篇
+                if (next < items.size()) {
+                    Item item = items.get(next++);
+                    futures.add(completion.submit(() -> summariseItem(item, apiKey, model)));
+                }
+                if (result.optBoolean("success")) {
+                    succeeded++;
+                }
+                listener.onResult(result);
+            }
+            return succeeded;
+        } finally {
+            for (Future<JSONObject> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static JSONObject summariseItem(Item item, String apiKey, String model) {
+        JSONObject result = new JSONObject();
+        result.put("index", item.index);
+        if (item.id != null) {
+            result.put("id", item.id);
+        }
+        result.put("url", item.url);
+        try {
+            ContentPipeline.Result prepared = ContentPipeline.shared().process(item.content);
+            String cacheKey = Server.summaryCacheKey(prepared.getContent(), item.url, model);
+            String summary = SummaryCache.shared().get(cacheKey);
+            boolean cached = summary != null;
+            if (!cached) {
+                AdmissionController.Permit permit = AdmissionController.shared().acquire(
+                    UpstreamClient.Provider.SILICONFLOW, apiKey, ADMISSION_WAIT_MS);
+                try (permit) {
+                    summary = Server.summarise(prepared.getContent(), item.url, apiKey, model);
+                }
+                SummaryCache.shared().put(cacheKey, summary);
+            }
+            result.put("summary", summary);
+            result.put("cached", cached);
+            result.put("stats", prepared.toJson());
+            result.put("success", true);
+        } catch (Exception e) {
+            result.put("success", false);
+            result.put("error", e.getMessage() == null ? e.toString() : e.getMessage());
+            result.put("status", e instanceof HttpStatusException ? ((HttpStatusException) e).getStatus() : 500);
+        }
+        return result;
+    }
+}
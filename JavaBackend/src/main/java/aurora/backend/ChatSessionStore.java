@@ -0,0 +1,201 @@
+package aurora.backend;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.json.JSONObject;
+
+/**
+ * 服务端对话会话
+ *
+ * 客户端只需要传 sessionId 和新消息，历史消息保存在服务端，由 ContextCompactor 在每次调用前压缩到 token 预算内。
+ * 会话绑定创建它的 API Key（按摘要比较），其他 Key 无法读取；内存中按 LRU 淘汰，空闲超时的会话在访问时清理。
+ *
+ * 配置项：
+ *   session.max-entries   最多保留的会话数，默认 1000
+ *   session.idle-ttl-ms   会话空闲多久后过期，默认 30 分钟
+ */
+public final class ChatSessionStore {
+
+    private static final ChatSessionStore SHARED = new ChatSessionStore(
+        ServerConfig.getInt("session.max-entries", 1000),
+        ServerConfig.getLong("session.idle-ttl-ms", 30 * 60_000L));
+
+    private final int maxEntries;
+    private final long idleTtlNanos;
+    private final LinkedHashMap<String, Session> sessions = new LinkedHashMap<>(64, 0.75f, true);
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    ChatSessionStore(int maxEntries, long idleTtlMillis) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.idleTtlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, idleTtlMillis));
+    }
+
+    public static ChatSessionStore shared() {
+        return SHARED;
+    }
+
+    /**
+     * 打开会话：sessionId 为空时新建，否则返回已有会话
+     * @throws HttpStatusException 404，会话不存在、已过期或不属于这个 API Key
+     */
+    public Session open(String sessionId, String apiKey) throws HttpStatusException {
+        String keyId = Hashing.keyId(apiKey);
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (sessionId == null || sessionId.isEmpty()) {
+                Session session = new Session(UUID.randomUUID().toString(), keyId, now);
+                sessions.put(session.id, session);
+                created.incrementAndGet();
+                evictOverflow(now);
+                return session;
+            }
+            Session session = sessions.get(sessionId);
+            if (session != null && now - session.lastAccess > idleTtlNanos) {
+                sessions.remove(sessionId);
+                expired.incrementAndGet();
+                session = null;
+            }
+            // Key 不匹配时和不存在一样处理，不暴露会话是否存在
+            if (session == null || !session.keyId.equals(keyId)) {
+                throw new HttpStatusException(404, "会话不存在或已过期，请重新开始对话");
+            }
+            session.lastAccess = now;
+            return session;
+        }
+    }
+
+    /**
+     * 先清理过期会话，仍然超出上限时淘汰最久未使用的会话
+     */
+    private void evictOverflow(long now) {
+        for (Iterator<Session> it = sessions.values().iterator(); it.hasNext();) {
+            Session session = it.next();
+            if (now - session.lastAccess > idleTtlNanos) {
+                it.remove();
+                expired.incrementAndGet();
+            } else {
+                // 访问顺序排列，后面的都更新
+                break;
+            }
+        }
+        Iterator<Map.Entry<String, Session>> it = sessions.entrySet().iterator();
+        while (sessions.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+            evicted.incrementAndGet();
+        }
+    }
+
+    public synchronized int size() {
+        return sessions.size();
+    }
+
+    public long getCreated() {
+        return created.get();
+    }
+
+    public long getExpired() {
+        return expired.get();
+    }
+
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    /**
+     * 把请求里的 message 字段转成一条 user 消息：可以是字符串，也可以是 {"role": "user", "content"}
+     * 会话里的 system / assistant 消息只能由服务端生成，客户端指定其他角色时拒绝
+     * @throws HttpStatusException 400，message 为空或角色不是 user
+     */
+    public static JSONObject userMessage(Object message) throws HttpStatusException {
+        JSONObject result;
+        if (message instanceof JSONObject) {
+            JSONObject source = (JSONObject) message;
+            result = new JSONObject();
+            if (!"user".equals(source.optString("role", "user"))) {
+                throw new HttpStatusException(400, "message 的 role 只能是 user");
+            }
+            result.put("role", "user");
+            result.put("content", source.optString("content", ""));
+        } else {
+            result = new JSONObject();
+            result.put("role", "user");
+            result.put("content", message == null || message == JSONObject.NULL ? "" : message.toString());
+        }
+        if (result.getString("content").isEmpty()) {
+            throw new HttpStatusException(400, "message 不能为空");
+        }
+        return result;
+    }
+
+    /**
+     * 一个会话：摘要 + 尚未并入摘要的最近几轮消息
+     * 同一会话同时只处理一条消息，调用方通过 lock / unlock 控制
+     */
+    public static final class Session {
+        final String id;
+        final String keyId;
+        private final ReentrantLock lock = new ReentrantLock();
+        volatile long lastAccess;
+
+        // 以下字段只在持有 lock 时访问
+        final List<JSONObject> turns = new ArrayList<>();
+        String summary = "";
+        int summarisedMessages;
+
+        Session(String id, String keyId, long now) {
+            this.id = id;
+            this.keyId = keyId;
+            this.lastAccess = now;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * 获取会话锁
+         * @throws HttpStatusException 409，上一条消息还在处理中
+         */
+        public void lock() throws HttpStatusException {
+            if (!lock.tryLock()) {
+                throw new HttpStatusException(409, "上一条消息还在处理中，请稍后再发送");
+            }
+        }
+
+        public void unlock() {
+            lock.unlock();
+        }
+
+        /**
+         * 记录一轮对话（调用上游成功之后），同时写回 build 时的压缩结果
+         * @param context 本轮 ContextCompactor.build 的结果
+         */
+        public void append(ContextCompactor.Context context, JSONObject userMessage, String reply) {
+            context.applyTo(this);
+            turns.add(userMessage);
+            JSONObject assistant = new JSONObject();
+            assistant.put("role", "assistant");
+            assistant.put("content", reply);
+            turns.add(assistant);
+        }
+
+        /**
+         * 会话里累计的消息数（包括已经并入摘要的）
+         */
+        public int messageCount() {
+            return summarisedMessages + turns.size();
+        }
+    }
+}
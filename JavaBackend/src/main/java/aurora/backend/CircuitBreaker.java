@@ -0,0 +1,97 @@
+package aurora.backend;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 熔断器 - 上游连续失败时快速失败，不再让请求排队等超时
+ *
+ * 状态：
+ *   CLOSED    正常放行，连续失败次数达到阈值后进入 OPEN
+ *   OPEN      直接拒绝（503 + Retry-After），持续 openMillis 后进入 HALF_OPEN
+ *   HALF_OPEN 只放行一个探测请求，成功则回到 CLOSED，失败则重新 OPEN
+ * 只有暂时性错误（连接失败、超时、429、5xx）计为失败；上游正常返回的 4xx 说明上游是好的，按成功处理。
+ */
+public final class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probing;
+
+    /**
+     * @param name 用于错误信息，例如 "siliconflow api.siliconflow.cn"
+     * @param failureThreshold 连续失败多少次后熔断
+     * @param openMillis 熔断持续时间
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, openMillis));
+    }
+
+    /**
+     * 发起调用前检查
+     * @throws HttpStatusException 503，熔断中或已有探测请求在进行
+     */
+    public synchronized void acquire() throws HttpStatusException {
+        if (state == State.OPEN) {
+            long elapsed = System.nanoTime() - openedAt;
+            if (elapsed < openNanos) {
+                throw unavailable(openNanos - elapsed);
+            }
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probing) {
+                throw unavailable(0);
+            }
+            probing = true;
+        }
+    }
+
+    /**
+     * 上游正常响应（包括非暂时性的 4xx）
+     */
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probing = false;
+    }
+
+    /**
+     * 暂时性失败
+     */
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+        probing = false;
+    }
+
+    /**
+     * 调用被中断等与上游状态无关的结束，只释放探测名额
+     */
+    public synchronized void onIgnored() {
+        probing = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private HttpStatusException unavailable(long remainingNanos) {
+        long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remainingNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+        return new HttpStatusException(503, "上游服务暂时不可用（" + name + "），请稍后重试", retryAfter);
+    }
+}
@@ -0,0 +1,95 @@
+package aurora.backend;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * OpenAI 兼容的流式响应解析（硅基流动 / RAGFlow 的 stream=true 返回）
+ *
+ * 上游按 SSE 格式逐行返回：
+ *   data: {"choices":[{"delta":{"content":"..."}}]}
+ *   data: [DONE]
+ * 每读到一段增量文本就回调一次，调用方写完（阻塞）之后才继续读上游，
+ * 因此客户端读得慢时上游连接也会跟着放慢，不会在内存里堆积。
+ *
+ * 上游响应体由 UpstreamClient 加上空闲超时（upstream.stream.idle-timeout，见 IdleTimeoutInputStream）：
+ * 上游停住不发数据时读取以 HttpTimeoutException 结束，请求线程和准入许可随之释放；
+ * 等待客户端写出的时间不计入空闲时间。
+ */
+public final class CompletionStream {
+
+    /**
+     * 增量文本回调
+     */
+    @FunctionalInterface
+    public interface DeltaListener {
+        void onDelta(String text) throws IOException;
+    }
+
+    private CompletionStream() {
+    }
+
+    /**
+     * 读取上游流式响应并逐段转发
+     * @param upstream 上游响应体，读完或出错时都会被关闭
+     * @param listener 增量回调
+     * @return 拼接后的完整回复
+     */
+    public static String relay(InputStream upstream, DeltaListener listener) throws IOException {
+        StringBuilder full = new StringBuilder();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(upstream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.startsWith("data:")) {
+                    continue;
+                }
+                String payload = line.substring(5).trim();
+                if (payload.isEmpty()) {
+                    continue;
+                }
+                if ("[DONE]".equals(payload)) {
+                    break;
+                }
+                String delta = extractDelta(payload);
+                if (delta != null && !delta.isEmpty()) {
+                    full.append(delta);
+                    listener.onDelta(delta);
+                }
+            }
+        }
+        return full.toString();
+    }
+
+    /**
+     * 取出一个数据块里的 choices[0].delta.content，没有内容时返回 null
+     */
+    static String extractDelta(String payload) {
+        try {
+            JSONObject chunk = new JSONObject(payload);
+            JSONArray choices = chunk.optJSONArray("choices");
+            if (choices == null || choices.length() == 0) {
+                return null;
+            }
+            JSONObject choice = choices.getJSONObject(0);
+            JSONObject delta = choice.optJSONObject("delta");
+            if (delta == null) {
+                // 个别实现在最后一块直接给出 message
+                delta = choice.optJSONObject("message");
+            }
+            if (delta == null || delta.isNull("content")) {
+                return null;
+            }
+            return delta.optString("content", null);
+        } catch (JSONException e) {
+            EventLog.warn("upstream.bad-chunk", "payload", payload);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,597 @@
+package aurora.backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONObject;
+
+/**
+ * 网页正文预处理 - 在总结之前去掉不影响总结的内容，减少发给上游的 token 数
+ *
+ * 由若干个按顺序执行的处理阶段组成，阶段可以通过配置增减或调整顺序：
+ *   html        去掉 HTML 注释、脚本 / 样式 / 导航等整块标签和其余标签，解码常见实体
+ *               （只在正文明显是 HTML 文档时执行：有 doctype、<html> / <body>，或者成对的开闭标签）
+ *   boilerplate 去掉网页开头和结尾处的版权、Cookie、登录、分享等短的样板行，以及连续的菜单式短行
+ *               （可能误删正文，默认不启用）
+ *   whitespace  合并行内连续空白，去掉行首尾空白，连续空行合并成一个段落分隔
+ *   dedupe      去掉重复的段落，以及在前文已经出现过的较长句子
+ *   truncate    超过 token 预算时按信息量挑选段落（保留开头和原有顺序），被省略的位置用 …… 标出；
+ *               放不下的段落截到剩余预算，不会只剩下省略号
+ *
+ * 配置项：
+ *   summary.preprocess.enabled     是否启用，默认 true
+ *   summary.preprocess.stages      阶段列表（逗号分隔），默认 html,whitespace,dedupe,truncate
+ *   summary.preprocess.max-tokens  truncate 阶段的 token 预算，默认 16000（长网页仍会走分段总结）
+ */
+public final class ContentPipeline {
+
+    /**
+     * 一个处理阶段
+     */
+    @FunctionalInterface
+    public interface Stage {
+        String apply(String content);
+    }
+
+    /**
+     * 预处理结果和前后的 token 估算
+     */
+    public static final class Result {
+        private final String content;
+        private final int originalTokens;
+        private final int reducedTokens;
+
+        Result(String content, int originalTokens, int reducedTokens) {
+            this.content = content;
+            this.originalTokens = originalTokens;
+            this.reducedTokens = reducedTokens;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public int getOriginalTokens() {
+            return originalTokens;
+        }
+
+        public int getReducedTokens() {
+            return reducedTokens;
+        }
+
+        /**
+         * 放进响应里的统计：{"originalTokens": ..., "reducedTokens": ...}
+         */
+        public JSONObject toJson() {
+            JSONObject stats = new JSONObject();
+            stats.put("originalTokens", originalTokens);
+            stats.put("reducedTokens", reducedTokens);
+            return stats;
+        }
+    }
+
+    private static final String DEFAULT_STAGES = "html,whitespace,dedupe,truncate";
+
+    private static final ContentPipeline SHARED = fromConfig();
+
+    private static final Pattern HTML_DOCUMENT = Pattern.compile("<!doctype\\s+html|<html[\\s>]|<body[\\s>]",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern HTML_CLOSE_TAG = Pattern.compile("</([a-zA-Z][a-zA-Z0-9]{0,15})\\s*>");
+    // 判断是否像 HTML 时只看开头这么多字符，以及需要的成对标签数
+    private static final int HTML_DETECT_CHARS = 64 * 1024;
+    private static final int HTML_MIN_TAG_PAIRS = 2;
+    private static final Pattern HTML_COMMENT = Pattern.compile("<!--.*?-->", Pattern.DOTALL);
+    private static final Pattern HTML_DROPPED_OPEN = Pattern.compile(
+        "<(script|style|noscript|nav|header|footer|aside|form|svg|iframe|template)\\b[^<>]{0,2000}>",
+        Pattern.CASE_INSENSITIVE);
+    // 整块去掉的标签最长这么多字符，超过（或者没有闭合）时只去掉标签本身，保留里面的内容
+    private static final int HTML_MAX_DROPPED_BLOCK_CHARS = 256 * 1024;
+    private static final Pattern HTML_BLOCK_TAG = Pattern.compile(
+        "</?(?:p|div|br|li|ul|ol|h[1-6]|tr|td|th|table|section|article|main|blockquote|pre|hr)\\b[^>]*>",
+        Pattern.CASE_INSENSITIVE);
+    // 标签里不允许出现 <，避免 “a<b” 这样的正文吞掉到下一个 > 为止的内容
+    private static final Pattern HTML_TAG = Pattern.compile("<[a-zA-Z/!][^<>]{0,2000}>");
+    private static final Pattern HTML_NUMERIC_ENTITY = Pattern.compile("&#(x[0-9a-fA-F]{1,6}|[0-9]{1,7});");
+    private static final Map<String, String> HTML_ENTITIES = Map.of(
+        "&nbsp;", " ", "&amp;", "&", "&lt;", "<", "&gt;", ">", "&quot;", "\"", "&apos;", "'", "&#39;", "'");
+
+    private static final Pattern BOILERPLATE_LINE = Pattern.compile(
+        "版权所有|©|copyright|all rights reserved|cookie|隐私政策|privacy policy|terms of (use|service)|用户协议"
+            + "|免责声明|登录|注册|sign in|log in|sign up|subscribe|订阅|分享到|share this|返回顶部|back to top"
+            + "|上一篇|下一篇|相关阅读|相关推荐|related (posts|articles)|广告|advertisement|扫码|关注我们|follow us"
+            + "|icp备|公网安备",
+        Pattern.CASE_INSENSITIVE);
+    // 样板行只在较短时才去掉，避免误删正文里提到这些词的句子
+    private static final int BOILERPLATE_MAX_CHARS = 40;
+    // 只处理开头和结尾各这么多个非空行（导航、页脚所在的位置），中间的正文不动
+    private static final int BOILERPLATE_EDGE_LINES = 15;
+    // 连续这么多行以上的菜单式短行（没有句末标点）视为导航
+    private static final int MENU_MIN_RUN = 4;
+    private static final int MENU_MAX_CHARS = 12;
+    // 菜单项不带任何标点；列表项、表格行有自己的标记，不算菜单
+    private static final Pattern MENU_EXCLUDED = Pattern.compile("\\p{P}|^[-*•·]\\s|^\\d+[.)、]|[|\\t]");
+
+    private static final Pattern INLINE_WHITESPACE = Pattern.compile("[ \\t\\x0B\\f\\u00A0\\u3000]+");
+    private static final Pattern BLANK_LINES = Pattern.compile("\\n{3,}");
+    private static final Pattern PARAGRAPH_BREAK = Pattern.compile("\\n\\s*\\n");
+    // 句末标点连同其后的空白：切分时空白留在句子末尾，拼回去与原文一致
+    private static final Pattern SENTENCE_END = Pattern.compile("[。！？；!?;.]\\s*");
+    // 重复句子只检查这个长度以上的，短句（例如“是的。”）重复很正常
+    private static final int DEDUPE_MIN_SENTENCE_CHARS = 20;
+    private static final Pattern TERM = Pattern.compile("[\\p{IsHan}]{2}|[\\p{L}\\p{N}]{3,}");
+    private static final String ELISION = "……";
+    // 截短片段时至少要有这么多剩余预算，更短的残句对总结没有帮助
+    private static final int TRUNCATE_MIN_PIECE_TOKENS = 64;
+
+    private final boolean enabled;
+    private final List<Stage> stages;
+    private final int maxTokens;
+
+    private final LongAdder originalTokens = new LongAdder();
+    private final LongAdder reducedTokens = new LongAdder();
+
+    ContentPipeline(boolean enabled, List<String> stageNames, int maxTokens) {
+        this.enabled = enabled;
+        this.maxTokens = maxTokens;
+        this.stages = new ArrayList<>();
+        for (String name : stageNames) {
+            Stage stage = stage(name.trim().toLowerCase(Locale.ROOT));
+            if (stage != null) {
+                stages.add(stage);
+            }
+        }
+    }
+
+    public static ContentPipeline shared() {
+        return SHARED;
+    }
+
+    private static ContentPipeline fromConfig() {
+        return new ContentPipeline(
+            ServerConfig.getBoolean("summary.preprocess.enabled", true),
+            Arrays.asList(ServerConfig.getString("summary.preprocess.stages", DEFAULT_STAGES).split(",")),
+            ServerConfig.getInt("summary.preprocess.max-tokens", 16000));
+    }
+
+    private Stage stage(String name) {
+        switch (name) {
+            case "html":
+                return ContentPipeline::stripHtml;
+            case "boilerplate":
+                return ContentPipeline::stripBoilerplate;
+            case "whitespace":
+                return ContentPipeline::collapseWhitespace;
+            case "dedupe":
+                return ContentPipeline::dedupe;
+            case "truncate":
+                return content -> truncate(content, maxTokens);
+            case "":
+                return null;
+            default:
+                EventLog.warn("config.invalid", "key", "summary.preprocess.stages", "value", name);
+                return null;
+        }
+    }
+
+    /**
+     * 依次执行所有阶段
+     */
+    public Result process(String content) {
+        if (content == null) {
+            content = "";
+        }
+        int before = TokenEstimator.estimate(content);
+        String processed = content;
+        if (enabled) {
+            for (Stage stage : stages) {
+                processed = stage.apply(processed);
+            }
+            // 全部被当成样板去掉时退回原文，不把空内容发给上游
+            if (processed.isBlank()) {
+                processed = content;
+            }
+        }
+        int after = processed == content ? before : TokenEstimator.estimate(processed);
+        originalTokens.add(before);
+        reducedTokens.add(after);
+        return new Result(processed, before, after);
+    }
+
+    /**
+     * 累计的预处理前 token 数
+     */
+    public long getOriginalTokens() {
+        return originalTokens.sum();
+    }
+
+    /**
+     * 累计的预处理后 token 数
+     */
+    public long getReducedTokens() {
+        return reducedTokens.sum();
+    }
+
+    // ---- 各处理阶段 ----
+
+    static String stripHtml(String content) {
+        if (!looksLikeHtml(content)) {
+            return content;
+        }
+        String text = HTML_COMMENT.matcher(content).replaceAll("");
+        text = stripDroppedBlocks(text);
+        text = HTML_BLOCK_TAG.matcher(text).replaceAll("\n");
+        text = HTML_TAG.matcher(text).replaceAll("");
+        return decodeEntities(text);
+    }
+
+    /**
+     * 有 doctype、<html> / <body>，或者开头部分至少有 HTML_MIN_TAG_PAIRS 对开闭标签
+     * 纯文本里偶尔出现的 “a<b”、“<用户名>” 不会被当成 HTML
+     */
+    static boolean looksLikeHtml(String content) {
+        String head = content.length() > HTML_DETECT_CHARS ? content.substring(0, HTML_DETECT_CHARS) : content;
+        if (HTML_DOCUMENT.matcher(head).find()) {
+            return true;
+        }
+        int pairs = 0;
+        Matcher close = HTML_CLOSE_TAG.matcher(head);
+        while (close.find()) {
+            String name = close.group(1);
+            if (lastIndexOfOpenTag(head, name, close.start()) >= 0 && ++pairs >= HTML_MIN_TAG_PAIRS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * before 之前最后一个 <name 开始标签的位置（标签名后面必须是空白、> 或 /）
+     */
+    private static int lastIndexOfOpenTag(String text, String name, int before) {
+        for (int i = text.lastIndexOf('<', before - 1); i >= 0; i = text.lastIndexOf('<', i - 1)) {
+            int end = i + 1 + name.length();
+            if (end < text.length() && text.regionMatches(true, i + 1, name, 0, name.length())) {
+                char next = text.charAt(end);
+                if (next == '>' || next == '/' || Character.isWhitespace(next)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 去掉脚本 / 样式 / 导航等整块标签
+     * 线性扫描：每种标签的闭合标签位置向后查找一次并缓存，没有闭合或者太长的块只去掉开始标签
+     */
+    private static String stripDroppedBlocks(String text) {
+        Matcher open = HTML_DROPPED_OPEN.matcher(text);
+        Map<String, Integer> nextClose = new HashMap<>();
+        StringBuilder out = null;
+        int copied = 0;
+        int from = 0;
+        while (from < text.length() && open.find(from)) {
+            String name = open.group(1).toLowerCase(Locale.ROOT);
+            Integer cached = nextClose.get(name);
+            int close = cached != null && (cached < 0 || cached >= open.end())
+                ? cached : indexOfCloseTag(text, name, open.end());
+            nextClose.put(name, close);
+            if (out == null) {
+                out = new StringBuilder(text.length());
+            }
+            out.append(text, copied, open.start()).append('\n');
+            if (close >= 0 && close - open.end() <= HTML_MAX_DROPPED_BLOCK_CHARS) {
+                int closeEnd = text.indexOf('>', close);
+                copied = closeEnd < 0 ? text.length() : closeEnd + 1;
+            } else {
+                copied = open.end();
+            }
+            from = copied;
+        }
+        if (out == null) {
+            return text;
+        }
+        return out.append(text, copied, text.length()).toString();
+    }
+
+    /**
+     * from 之后第一个 </name 的位置（忽略大小写），没有时返回 -1
+     */
+    private static int indexOfCloseTag(String text, String name, int from) {
+        for (int i = text.indexOf("</", from); i >= 0; i = text.indexOf("</", i + 2)) {
+            if (text.regionMatches(true, i + 2, name, 0, name.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String decodeEntities(String text) {
+        if (text.indexOf('&') < 0) {
+            return text;
+        }
+        for (Map.Entry<String, String> entity : HTML_ENTITIES.entrySet()) {
+            text = text.replace(entity.getKey(), entity.getValue());
+        }
+        Matcher matcher = HTML_NUMERIC_ENTITY.matcher(text);
+        StringBuilder out = new StringBuilder(text.length());
+        while (matcher.find()) {
+            String code = matcher.group(1);
+            int codePoint;
+            try {
+                codePoint = code.charAt(0) == 'x' ? Integer.parseInt(code.substring(1), 16) : Integer.parseInt(code);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            String replacement = Character.isValidCodePoint(codePoint) ? new String(Character.toChars(codePoint)) : "";
+            matcher.appendReplacement(out, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(out);
+        return out.toString();
+    }
+
+    static String stripBoilerplate(String content) {
+        String[] lines = content.split("\n", -1);
+        boolean[] drop = new boolean[lines.length];
+        boolean[] edge = edgeLines(lines);
+        // 菜单项之间的空行不打断连续的短行
+        int runStart = -1;
+        int runEnd = -1;
+        int runLength = 0;
+        for (int i = 0; i <= lines.length; i++) {
+            String line = i < lines.length ? lines[i].trim() : null;
+            if (line != null && line.isEmpty()) {
+                continue;
+            }
+            boolean menuLike = line != null && edge[i] && line.length() <= MENU_MAX_CHARS
+                && !MENU_EXCLUDED.matcher(line).find();
+            if (menuLike) {
+                if (runStart < 0) {
+                    runStart = i;
+                }
+                runEnd = i + 1;
+                runLength++;
+            } else {
+                if (runLength >= MENU_MIN_RUN) {
+                    Arrays.fill(drop, runStart, runEnd, true);
+                }
+                runStart = -1;
+                runLength = 0;
+            }
+            if (line == null) {
+                break;
+            }
+            if (edge[i] && line.length() <= BOILERPLATE_MAX_CHARS && BOILERPLATE_LINE.matcher(line).find()) {
+                drop[i] = true;
+            }
+        }
+        StringBuilder out = new StringBuilder(content.length());
+        for (int i = 0; i < lines.length; i++) {
+            if (!drop[i]) {
+                out.append(lines[i]).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * 开头和结尾各 BOILERPLATE_EDGE_LINES 个非空行；正文太短（两端重叠）时不算边缘，整篇都不处理
+     */
+    private static boolean[] edgeLines(String[] lines) {
+        boolean[] edge = new boolean[lines.length];
+        List<Integer> nonEmpty = new ArrayList<>();
+        for (int i = 0; i < lines.length; i++) {
+            if (!lines[i].isBlank()) {
+                nonEmpty.add(i);
+            }
+        }
+        if (nonEmpty.size() <= 2 * BOILERPLATE_EDGE_LINES) {
+            return edge;
+        }
+        Arrays.fill(edge, 0, nonEmpty.get(BOILERPLATE_EDGE_LINES), true);
+        Arrays.fill(edge, nonEmpty.get(nonEmpty.size() - BOILERPLATE_EDGE_LINES), lines.length, true);
+        return edge;
+    }
+
+    static String collapseWhitespace(String content) {
+        String text = content.replace("\r\n", "\n").replace('\r', '\n');
+        text = INLINE_WHITESPACE.matcher(text).replaceAll(" ");
+        StringBuilder out = new StringBuilder(text.length());
+        for (String line : text.split("\n", -1)) {
+            out.append(line.trim()).append('\n');
+        }
+        return BLANK_LINES.matcher(out).replaceAll("\n\n").trim();
+    }
+
+    static String dedupe(String content) {
+        Set<String> seenParagraphs = new HashSet<>();
+        Set<String> seenSentences = new HashSet<>();
+        StringBuilder out = new StringBuilder(content.length());
+        for (String paragraph : PARAGRAPH_BREAK.split(content)) {
+            String key = normalizeKey(paragraph);
+            if (key.isEmpty() || !seenParagraphs.add(key)) {
+                continue;
+            }
+            StringBuilder kept = new StringBuilder(paragraph.length());
+            for (String sentence : splitSentences(paragraph)) {
+                String sentenceKey = normalizeKey(sentence);
+                if (sentenceKey.length() >= DEDUPE_MIN_SENTENCE_CHARS && !seenSentences.add(sentenceKey)) {
+                    continue;
+                }
+                kept.append(sentence);
+            }
+            if (kept.length() > 0) {
+                if (out.length() > 0) {
+                    out.append("\n\n");
+                }
+                out.append(kept.toString().trim());
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * 按句末标点切分，每句保留原有的结尾空白，依次拼接即为原文
+     */
+    static List<String> splitSentences(String text) {
+        List<String> sentences = new ArrayList<>();
+        Matcher matcher = SENTENCE_END.matcher(text);
+        int start = 0;
+        while (matcher.find()) {
+            sentences.add(text.substring(start, matcher.end()));
+            start = matcher.end();
+        }
+        if (start < text.length()) {
+            sentences.add(text.substring(start));
+        }
+        return sentences;
+    }
+
+    private static String normalizeKey(String text) {
+        return INLINE_WHITESPACE.matcher(text.replace('\n', ' ')).replaceAll(" ").trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 超出预算时按信息量挑选片段
+     * 片段优先按段落划分；只有一个大段时（例如客户端已经把换行压成空格）按句子划分。
+     * 信息量 = 片段里前文没出现过的词数 / sqrt(token 数)，开头的片段总是保留。
+     */
+    static String truncate(String content, int maxTokens) {
+        if (maxTokens <= 0 || TokenEstimator.estimate(content) <= maxTokens) {
+            return content;
+        }
+        List<String> segments = new ArrayList<>();
+        for (String paragraph : PARAGRAPH_BREAK.split(content)) {
+            if (!paragraph.isBlank()) {
+                segments.add(paragraph.trim());
+            }
+        }
+        String separator = "\n\n";
+        if (segments.size() <= 1) {
+            segments.clear();
+            for (String sentence : splitSentences(content.trim())) {
+                if (!sentence.isBlank()) {
+                    segments.add(sentence);
+                }
+            }
+            // 句子自带原有的结尾空白
+            separator = "";
+        }
+
+        int n = segments.size();
+        int[] tokens = new int[n];
+        double[] scores = new double[n];
+        Set<String> seenTerms = new HashSet<>();
+        for (int i = 0; i < n; i++) {
+            String segment = segments.get(i);
+            tokens[i] = Math.max(1, TokenEstimator.estimate(segment));
+            int fresh = 0;
+            Matcher matcher = TERM.matcher(segment.toLowerCase(Locale.ROOT));
+            while (matcher.find()) {
+                if (seenTerms.add(matcher.group())) {
+                    fresh++;
+                }
+            }
+            scores[i] = fresh / Math.sqrt(tokens[i]);
+        }
+
+        boolean[] keep = new boolean[n];
+        // 开头的片段通常是标题和导语，放不下时截到预算内
+        if (tokens[0] > maxTokens) {
+            segments.set(0, cutToTokens(segments.get(0), maxTokens));
+            tokens[0] = TokenEstimator.estimate(segments.get(0));
+        }
+        keep[0] = true;
+        int used = tokens[0];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+        for (int i : order) {
+            if (!keep[i] && used + tokens[i] <= maxTokens) {
+                keep[i] = true;
+                used += tokens[i];
+            }
+        }
+        // 剩余预算还够时，把信息量最高的放不下的片段截短放进去
+        if (maxTokens - used >= TRUNCATE_MIN_PIECE_TOKENS) {
+            for (int i : order) {
+                if (!keep[i]) {
+                    segments.set(i, cutToTokens(segments.get(i), maxTokens - used));
+                    keep[i] = true;
+                    break;
+                }
+            }
+        }
+
+        // 按原有顺序拼回，被省略的连续片段用一个 …… 代替（截短的片段已经以 …… 结尾）
+        StringBuilder out = new StringBuilder();
+        boolean elided = false;
+        for (int i = 0; i < n; i++) {
+            if (!keep[i]) {
+                elided = true;
+                continue;
+            }
+            if (out.length() > 0) {
+                if (elided && !endsWithElision(out)) {
+                    out.append(separator).append(ELISION);
+                }
+                out.append(separator);
+            }
+            elided = false;
+            out.append(segments.get(i));
+        }
+        if (elided && !endsWithElision(out)) {
+            out.append(separator).append(ELISION);
+        }
+        return out.toString().trim();
+    }
+
+    private static boolean endsWithElision(StringBuilder out) {
+        int length = out.length();
+        return length >= ELISION.length() && out.lastIndexOf(ELISION) == length - ELISION.length();
+    }
+
+    /**
+     * 截取不超过 maxTokens 的前缀，末尾加上 ……；尽量在空白处断开，不拆开代理对
+     */
+    static String cutToTokens(String text, int maxTokens) {
+        int budget = Math.max(1, maxTokens - TokenEstimator.estimate(ELISION));
+        // token 数随长度单调不减，二分找最长的前缀
+        int low = 0;
+        int high = text.length();
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (TokenEstimator.estimate(text.subSequence(0, mid)) <= budget) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int end = low;
+        if (end < text.length() && end > 0 && Character.isLetterOrDigit(text.charAt(end))
+                && Character.isLetterOrDigit(text.charAt(end - 1))) {
+            int space = end - 1;
+            while (space > 0 && end - space < 32 && !Character.isWhitespace(text.charAt(space))) {
+                space--;
+            }
+            if (space > 0 && Character.isWhitespace(text.charAt(space))) {
+                end = space;
+            }
+        }
+        if (end > 0 && Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(0, end).trim() + ELISION;
+    }
+}
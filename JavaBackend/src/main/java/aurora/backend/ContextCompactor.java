@@ -0,0 +1,183 @@
+package aurora.backend;
+
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * 会话上下文压缩 - 把会话历史控制在 token 预算内再发给上游
+ *
+ * 发给上游的消息 = [摘要（system 消息）] + 最近若干条消息 + 新消息。
+ * 超出预算时，把较早的消息连同已有摘要交给大模型重新总结成一段滚动摘要；
+ * 为了避免每一轮都触发总结，压缩后只保留预算一半以内的最近消息。
+ * 总结失败或没有可用的总结方式时，直接丢弃较早的消息。
+ * 压缩结果先放在 Context 里，不修改会话；上游调用成功、Session.append 记录这一轮时才写回，
+ * 调用失败时会话历史保持原样。
+ *
+ * 配置项：
+ *   session.context.max-tokens  发给上游的上下文预算（不含新消息），默认 3000
+ *   session.summary.enabled     是否把较早的消息滚动总结，默认 true（关闭后只截断）
+ */
+public final class ContextCompactor {
+
+    /**
+     * 滚动摘要的总结方式（通常是一次非流式对话调用）
+     */
+    @FunctionalInterface
+    public interface Summariser {
+        String summarise(JSONArray messages) throws Exception;
+    }
+
+    private static final int MAX_CONTEXT_TOKENS = Math.max(100, ServerConfig.getInt("session.context.max-tokens", 3000));
+    private static final boolean SUMMARY_ENABLED = ServerConfig.getBoolean("session.summary.enabled", true);
+
+    // 每条消息的角色、分隔符等固定开销
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+    private static final String SUMMARY_PREFIX = "以下是本次对话中较早内容的摘要，请在回答时参考：\n";
+    private static final String ROLLUP_PROMPT = "请把以下对话内容（以及已有摘要）整理成一段简洁的摘要，"
+        + "保留用户的问题、关键事实、结论和尚未解决的事项，控制在300字以内：\n\n";
+
+    private ContextCompactor() {
+    }
+
+    /**
+     * 本轮发给上游的消息，以及还没有写回会话的压缩结果
+     */
+    public static final class Context {
+        private final JSONArray messages;
+        // 压缩后的摘要，以及要从会话开头移出的消息数（0 表示没有压缩）
+        private final String summary;
+        private final int removed;
+        private final boolean summarised;
+
+        private Context(JSONArray messages, String summary, int removed, boolean summarised) {
+            this.messages = messages;
+            this.summary = summary;
+            this.removed = removed;
+            this.summarised = summarised;
+        }
+
+        public JSONArray getMessages() {
+            return messages;
+        }
+
+        /**
+         * 把压缩结果写回会话（调用方需持有会话锁，且从 build 到这里会话没有被修改）
+         */
+        void applyTo(ChatSessionStore.Session session) {
+            if (removed == 0) {
+                return;
+            }
+            session.turns.subList(0, removed).clear();
+            session.summary = summary;
+            session.summarisedMessages += removed;
+            EventLog.info("session.compacted", "session", session.id, "messages", removed, "summarised", summarised);
+        }
+    }
+
+    /**
+     * 构造本轮发给上游的消息，必要时压缩会话历史；会话本身不修改，压缩结果在 Session.append 时写回
+     * （调用方需持有会话锁）
+     * @param summariser 滚动摘要的总结方式，为 null 时只截断
+     */
+    public static Context build(ChatSessionStore.Session session, JSONObject userMessage, Summariser summariser) {
+        List<JSONObject> turns = session.turns;
+        String summary = session.summary;
+        int removed = 0;
+        boolean summarised = false;
+        int budget = MAX_CONTEXT_TOKENS - tokens(session.summary);
+        if (!turns.isEmpty() && historyTokens(turns) > budget) {
+            removed = splitPoint(turns);
+            String rolledUp = rollUp(session.summary, turns.subList(0, removed), summariser);
+            if (rolledUp != null) {
+                summary = rolledUp;
+                summarised = true;
+            }
+        }
+
+        JSONArray messages = new JSONArray();
+        if (!summary.isEmpty()) {
+            JSONObject system = new JSONObject();
+            system.put("role", "system");
+            system.put("content", SUMMARY_PREFIX + summary);
+            messages.put(system);
+        }
+        for (JSONObject turn : turns.subList(removed, turns.size())) {
+            messages.put(turn);
+        }
+        messages.put(userMessage);
+        return new Context(messages, summary, removed, summarised);
+    }
+
+    /**
+     * 保留预算一半以内的最近消息，返回需要并入摘要（或丢弃）的较早消息数
+     */
+    private static int splitPoint(List<JSONObject> turns) {
+        int keepBudget = MAX_CONTEXT_TOKENS / 2;
+        // 从最新的消息往前数，找到第一条需要移出的位置；至少移出一条
+        int split = turns.size();
+        int kept = 0;
+        while (split > 0) {
+            int next = kept + tokens(turns.get(split - 1));
+            if (next > keepBudget) {
+                break;
+            }
+            kept = next;
+            split--;
+        }
+        split = Math.max(1, split);
+        // 不要把一问一答拆开：保留部分从 user 消息开始
+        while (split < turns.size() && !"user".equals(turns.get(split).optString("role"))) {
+            split++;
+        }
+        return split;
+    }
+
+    /**
+     * 把已有摘要和较早的消息总结成新的摘要
+     * @return 新摘要；未开启、没有总结方式或总结失败时返回 null
+     */
+    private static String rollUp(String previousSummary, List<JSONObject> older, Summariser summariser) {
+        if (!SUMMARY_ENABLED || summariser == null) {
+            return null;
+        }
+        StringBuilder prompt = new StringBuilder(ROLLUP_PROMPT);
+        if (!previousSummary.isEmpty()) {
+            prompt.append("已有摘要：\n").append(previousSummary).append("\n\n");
+        }
+        prompt.append("对话内容：\n");
+        for (JSONObject message : older) {
+            prompt.append("assistant".equals(message.optString("role")) ? "助手：" : "用户：")
+                .append(message.optString("content")).append('\n');
+        }
+
+        JSONObject request = new JSONObject();
+        request.put("role", "user");
+        request.put("content", prompt.toString());
+        try {
+            String summary = summariser.summarise(new JSONArray().put(request));
+            return summary == null || summary.isBlank() ? null : summary.trim();
+        } catch (Exception e) {
+            EventLog.warn("session.summary-failed", "error", e.getMessage());
+            return null;
+        }
+    }
+
+    private static int historyTokens(List<JSONObject> turns) {
+        int total = 0;
+        for (JSONObject turn : turns) {
+            total += tokens(turn);
+        }
+        return total;
+    }
+
+    private static int tokens(JSONObject message) {
+        return TokenEstimator.estimate(message.optString("content")) + MESSAGE_OVERHEAD_TOKENS;
+    }
+
+    private static int tokens(String text) {
+        return text.isEmpty() ? 0 : TokenEstimator.estimate(text) + MESSAGE_OVERHEAD_TOKENS;
+    }
+}
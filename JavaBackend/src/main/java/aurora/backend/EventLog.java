@@ -0,0 +1,531 @@
+package aurora.backend;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+/**
+ * 结构化日志 - 请求线程只把事件放进无锁环形缓冲区，由后台线程批量格式化、写出
+ *
+ * 每条日志是一行 JSON：{"ts", "level", "event", 其余字段..., "error", "stack"}。
+ * 请求线程上只做级别 / 采样判断和一次 CAS，字符串拼接、截断、脱敏、写文件都在后台线程完成；
+ * 缓冲区满时直接丢弃并计数，不阻塞请求。
+ * 脱敏：字段名是 apiKey / ragflowApiKey / authorization 等时只输出 Hashing.keyId；
+ * 字符串里形如 sk-xxx、Bearer xxx、"apiKey":"xxx" 的内容替换为 ***。
+ *
+ * 访问日志（event = "access"）由 Metrics.instrument 在每个请求结束时写入，
+ * 按 log.access.sample-rate 采样，4xx / 5xx 和慢请求总是记录。
+ *
+ * 配置项：
+ *   log.level                  最低级别 DEBUG / INFO / WARN / ERROR，默认 INFO
+ *   log.file                   日志文件，为空时写到标准输出
+ *   log.buffer.size            环形缓冲区容量（向上取 2 的幂），默认 8192
+ *   log.batch.size             后台线程每批写出的条数，默认 512
+ *   log.access.enabled         是否记录访问日志，默认 true
+ *   log.access.sample-rate     访问日志采样率 0-1，默认 1
+ *   log.access.slow-ms         超过这个耗时的请求不参与采样，默认 10000
+ *   log.debug.sample-rate      DEBUG 日志采样率 0-1，默认 1
+ *   log.field.max-chars        单个字段最多输出的字符数，默认 512
+ *   log.stack.max-frames       异常堆栈最多输出的帧数，默认 20
+ */
+public final class EventLog {
+
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    private static final Set<String> SECRET_FIELDS = Set.of(
+        "apikey", "api_key", "ragflowapikey", "authorization", "token", "password");
+    private static final Pattern SECRET_PATTERN = Pattern.compile(
+        "(\"(?:apiKey|api_key|ragflowApiKey|token|password)\"\\s*:\\s*\")[^\"]*(\")"
+            + "|\\b(?:sk|ragflow)-[A-Za-z0-9_-]{8,}"
+            + "|([Bb]earer\\s+)[A-Za-z0-9._~+/=-]+");
+
+    // 后台线程没事做时最长的等待时间，期间新的日志会把它唤醒
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final EventLog SHARED = fromConfig();
+
+    private final Level level;
+    private final boolean accessEnabled;
+    private final double accessSampleRate;
+    private final long slowMicros;
+    private final double debugSampleRate;
+    private final int maxFieldChars;
+    private final int maxStackFrames;
+    private final int batchSize;
+
+    private final RingBuffer buffer;
+    private final Writer out;
+    private final Thread writer;
+    private volatile boolean writerParked;
+    // 以下两个字段只在 drain 中访问
+    private long cachedSecond = Long.MIN_VALUE;
+    private String cachedSecondText;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+    private final LongAdder writeErrors = new LongAdder();
+
+    EventLog(Level level, OutputStream output, int capacity, int batchSize, boolean accessEnabled,
+            double accessSampleRate, long slowMillis, double debugSampleRate, int maxFieldChars, int maxStackFrames) {
+        this.level = level;
+        this.accessEnabled = accessEnabled;
+        this.accessSampleRate = accessSampleRate;
+        this.slowMicros = TimeUnit.MILLISECONDS.toMicros(slowMillis);
+        this.debugSampleRate = debugSampleRate;
+        this.maxFieldChars = Math.max(16, maxFieldChars);
+        this.maxStackFrames = Math.max(0, maxStackFrames);
+        this.batchSize = Math.max(1, batchSize);
+        this.buffer = new RingBuffer(capacity);
+        this.out = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 64 * 1024);
+        this.writer = new Thread(this::drainLoop, "aurora-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private static EventLog fromConfig() {
+        Level level;
+        try {
+            level = Level.valueOf(ServerConfig.getString("log.level", "INFO").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.out.println("未知的 log.level，使用 INFO");
+            level = Level.INFO;
+        }
+        EventLog log = new EventLog(level, openOutput(ServerConfig.getString("log.file", "")),
+            ServerConfig.getInt("log.buffer.size", 8192),
+            ServerConfig.getInt("log.batch.size", 512),
+            ServerConfig.getBoolean("log.access.enabled", true),
+            rate(ServerConfig.getString("log.access.sample-rate", "1")),
+            ServerConfig.getLong("log.access.slow-ms", 10_000),
+            rate(ServerConfig.getString("log.debug.sample-rate", "1")),
+            ServerConfig.getInt("log.field.max-chars", 512),
+            ServerConfig.getInt("log.stack.max-frames", 20));
+        // 退出前把缓冲区里剩下的日志写完
+        Runtime.getRuntime().addShutdownHook(new Thread(log::flush, "aurora-log-flush"));
+        return log;
+    }
+
+    /**
+     * 日志文件打不开时退回标准输出
+     */
+    private static OutputStream openOutput(String file) {
+        if (!file.isEmpty()) {
+            try {
+                Path path = Paths.get(file);
+                if (path.getParent() != null) {
+                    Files.createDirectories(path.getParent());
+                }
+                return Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.out.println("日志文件无法打开 " + file + "，改为写到标准输出: " + e.getMessage());
+            }
+        }
+        // 直接写文件描述符，不经过 System.out 的锁
+        return new FileOutputStream(FileDescriptor.out);
+    }
+
+    private static double rate(String value) {
+        try {
+            return Math.max(0, Math.min(1, Double.parseDouble(value)));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    public static EventLog shared() {
+        return SHARED;
+    }
+
+    // ---- 请求线程调用的入口 ----
+
+    public static void debug(String event, Object... fields) {
+        SHARED.log(Level.DEBUG, event, null, fields);
+    }
+
+    public static void info(String event, Object... fields) {
+        SHARED.log(Level.INFO, event, null, fields);
+    }
+
+    public static void warn(String event, Object... fields) {
+        SHARED.log(Level.WARN, event, null, fields);
+    }
+
+    public static void error(String event, Throwable error, Object... fields) {
+        SHARED.log(Level.ERROR, event, error, fields);
+    }
+
+    public boolean isEnabled(Level candidate) {
+        return candidate.compareTo(level) >= 0;
+    }
+
+    /**
+     * 记录一个事件
+     * @param fields 键值对：名称1, 值1, 名称2, 值2, ...；值在后台线程里才转成字符串，调用方不要再修改它
+     */
+    public void log(Level eventLevel, String event, Throwable error, Object... fields) {
+        if (!isEnabled(eventLevel)) {
+            return;
+        }
+        if (eventLevel == Level.DEBUG && !sample(debugSampleRate)) {
+            return;
+        }
+        enqueue(new Record(System.currentTimeMillis(), eventLevel, event, error, fields));
+    }
+
+    /**
+     * 访问日志：每个接口请求结束时调用一次
+     */
+    public void access(String method, String path, int status, long micros, long requestBytes, long responseBytes,
+            String provider, String model) {
+        if (!accessEnabled || !isEnabled(Level.INFO)) {
+            return;
+        }
+        if (status < 400 && micros < slowMicros && !sample(accessSampleRate)) {
+            return;
+        }
+        enqueue(new Record(System.currentTimeMillis(), Level.INFO, "access", null, new Object[] {
+            "method", method, "path", path, "status", status, "durationMs", micros / 1000.0,
+            "requestBytes", requestBytes, "responseBytes", responseBytes, "provider", provider, "model", model}));
+    }
+
+    private boolean sample(double rate) {
+        if (rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate) {
+            return true;
+        }
+        sampledOut.increment();
+        return false;
+    }
+
+    private void enqueue(Record record) {
+        if (!buffer.offer(record)) {
+            dropped.increment();
+        }
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    // ---- 后台线程 ----
+
+    private void drainLoop() {
+        StringBuilder line = new StringBuilder(256);
+        while (true) {
+            if (drain(line) > 0) {
+                continue;
+            }
+            if (buffer.size() > 0) {
+                // 生产者已经占了位置、还没写入，很快就能读到
+                Thread.onSpinWait();
+                continue;
+            }
+            writerParked = true;
+            // 设置标志后再检查一次，避免错过刚放进来的日志
+            if (buffer.size() == 0) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            writerParked = false;
+        }
+    }
+
+    /**
+     * 写出一批日志并 flush
+     * @return 写出的条数
+     */
+    private synchronized int drain(StringBuilder line) {
+        int count = 0;
+        Record record;
+        while (count < batchSize && (record = buffer.poll()) != null) {
+            line.setLength(0);
+            format(record, line);
+            line.append('\n');
+            try {
+                out.append(line);
+            } catch (IOException e) {
+                writeErrors.increment();
+            }
+            count++;
+        }
+        if (count > 0) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                writeErrors.increment();
+            }
+            written.add(count);
+        }
+        return count;
+    }
+
+    /**
+     * 把缓冲区里已有的日志全部写出（退出时调用）
+     */
+    public void flush() {
+        StringBuilder line = new StringBuilder(256);
+        while (drain(line) > 0) {
+            // 继续写下一批
+        }
+    }
+
+    private void format(Record record, StringBuilder line) {
+        line.append("{\"ts\":\"");
+        appendTimestamp(line, record.timestamp);
+        line.append("\",\"level\":\"").append(record.level.name()).append("\",\"event\":");
+        appendQuoted(line, record.event);
+        Object[] fields = record.fields;
+        for (int i = 0; fields != null && i + 1 < fields.length; i += 2) {
+            String name = String.valueOf(fields[i]);
+            line.append(',');
+            appendQuoted(line, name);
+            line.append(':');
+            appendValue(line, name, fields[i + 1]);
+        }
+        if (record.error != null) {
+            line.append(",\"error\":");
+            appendQuoted(line, clean(record.error.toString()));
+            if (maxStackFrames > 0 && record.level == Level.ERROR) {
+                line.append(",\"stack\":");
+                appendQuoted(line, stackTrace(record.error));
+            }
+        }
+        line.append('}');
+    }
+
+    /**
+     * ISO-8601 UTC 时间；同一秒内的日志复用已经格式化好的部分
+     */
+    private void appendTimestamp(StringBuilder line, long millis) {
+        long second = Math.floorDiv(millis, 1000);
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            String formatted = DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochSecond(second));
+            // 去掉末尾的 Z，毫秒之后再补上
+            cachedSecondText = formatted.substring(0, formatted.length() - 1);
+        }
+        int fraction = Math.floorMod(millis, 1000);
+        line.append(cachedSecondText).append('.')
+            .append((char) ('0' + fraction / 100))
+            .append((char) ('0' + fraction / 10 % 10))
+            .append((char) ('0' + fraction % 10))
+            .append('Z');
+    }
+
+    /**
+     * 按 JSON 字符串转义后追加（带引号）
+     */
+    private static void appendQuoted(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+            }
+        }
+        line.append('"');
+    }
+
+    private void appendValue(StringBuilder line, String name, Object value) {
+        if (value == null) {
+            line.append("null");
+        } else if (SECRET_FIELDS.contains(name.toLowerCase(Locale.ROOT))) {
+            line.append('"').append(Hashing.keyId(value.toString())).append('"');
+        } else if (value instanceof Number || value instanceof Boolean) {
+            line.append(value);
+        } else {
+            appendQuoted(line, clean(value.toString()));
+        }
+    }
+
+    /**
+     * 截断并脱敏；先多保留一段再脱敏，避免截断点把密钥切成识别不出来的半截
+     */
+    private String clean(String value) {
+        int length = value.length();
+        String text = length > maxFieldChars + 64 ? value.substring(0, maxFieldChars + 64) : value;
+        if (mayContainSecret(text)) {
+            // 没有匹配的分组替换为空：字段形式保留引号和键名，Bearer 形式保留前缀
+            text = SECRET_PATTERN.matcher(text).replaceAll("$1$3***$2");
+        }
+        if (length > maxFieldChars) {
+            text = text.substring(0, Math.min(text.length(), maxFieldChars)) + "…（共 " + length + " 字符）";
+        }
+        return text;
+    }
+
+    /**
+     * 大部分字段（路径、模型名、数字）不可能含密钥，先用 indexOf 排除，省掉正则匹配
+     */
+    private static boolean mayContainSecret(String text) {
+        return text.indexOf('"') >= 0 || text.contains("sk-") || text.contains("ragflow-") || text.contains("earer");
+    }
+
+    private String stackTrace(Throwable error) {
+        StringBuilder stack = new StringBuilder(512);
+        int frames = 0;
+        for (Throwable current = error; current != null && frames < maxStackFrames; current = current.getCause()) {
+            if (current != error) {
+                stack.append("Caused by: ").append(clean(current.toString())).append('\n');
+            }
+            for (StackTraceElement element : current.getStackTrace()) {
+                if (frames++ >= maxStackFrames) {
+                    break;
+                }
+                stack.append("\tat ").append(element).append('\n');
+            }
+            if (current.getCause() == current) {
+                break;
+            }
+        }
+        return stack.toString();
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getSampledOut() {
+        return sampledOut.sum();
+    }
+
+    public long getWriteErrors() {
+        return writeErrors.sum();
+    }
+
+    public int getBufferDepth() {
+        return buffer.size();
+    }
+
+    /**
+     * 一条还没格式化的日志
+     */
+    private static final class Record {
+        final long timestamp;
+        final Level level;
+        final String event;
+        final Throwable error;
+        final Object[] fields;
+
+        Record(long timestamp, Level level, String event, Throwable error, Object[] fields) {
+            this.timestamp = timestamp;
+            this.level = level;
+            this.event = event;
+            this.error = error;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * 有界的多生产者单消费者环形缓冲区
+     *
+     * 每个槽位带一个序号：序号 == 写入位置时可写，== 写入位置 + 1 时可读，
+     * 生产者用 CAS 抢写入位置，消费者只有后台线程一个，读取位置不需要同步。
+     */
+    static final class RingBuffer {
+        private final Object[] slots;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private volatile long head;
+
+        RingBuffer(int requestedCapacity) {
+            int capacity = Integer.highestOneBit(Math.max(2, requestedCapacity) - 1) << 1;
+            this.slots = new Object[capacity];
+            this.sequences = new AtomicLongArray(capacity);
+            this.mask = capacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        /**
+         * @return 缓冲区已满时返回 false
+         */
+        boolean offer(Object value) {
+            long position = tail.get();
+            while (true) {
+                int index = (int) (position & mask);
+                long diff = sequences.get(index) - position;
+                if (diff == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        slots[index] = value;
+                        sequences.set(index, position + 1);
+                        return true;
+                    }
+                    position = tail.get();
+                } else if (diff < 0) {
+                    return false;
+                } else {
+                    // 其他生产者已经占用了这个位置
+                    position = tail.get();
+                }
+            }
+        }
+
+        /**
+         * 只能由消费者线程调用
+         * @return 没有可读的元素时返回 null
+         */
+        @SuppressWarnings("unchecked")
+        <T> T poll() {
+            long position = head;
+            int index = (int) (position & mask);
+            if (sequences.get(index) != position + 1) {
+                return null;
+            }
+            Object value = slots[index];
+            slots[index] = null;
+            sequences.set(index, position + slots.length);
+            head = position + 1;
+            return (T) value;
+        }
+
+        int size() {
+            return (int) Math.max(0, tail.get() - head);
+        }
+    }
+}
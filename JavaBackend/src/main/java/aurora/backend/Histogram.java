@@ -0,0 +1,106 @@
+package aurora.backend;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁的对数线性直方图（HDR 风格）
+ *
+ * 每个 2 的幂区间再等分成 8 个子桶，相对误差不超过 12.5%；
+ * 记录只做一次位运算定位桶和一次 LongAdder 自增，适合在请求热路径上调用。
+ * 值的单位由调用方决定（例如延迟用微秒、大小用字节）。
+ */
+public final class Histogram {
+
+    // 每个 2 的幂区间的子桶数 = 2^SUB_BUCKET_BITS
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 最大可区分的值约为 2^MAX_EXPONENT，更大的值落在最后一个桶里
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    public Histogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 记录一个值（负数按 0 处理）
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets[indexOf(value)].increment();
+        count.increment();
+        sum.add(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * 小于等于 bound 的记录数（bound 取 2 的幂时结果是精确的）
+     */
+    public long countAtOrBelow(long bound) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (upperBoundOf(i) > bound) {
+                break;
+            }
+            total += buckets[i].sum();
+        }
+        return total;
+    }
+
+    /**
+     * 估算分位数，返回所在桶的上界；没有任何记录时返回 -1
+     * @param quantile 0 到 1 之间，例如 0.95
+     */
+    public long quantile(double quantile) {
+        long total = count.sum();
+        if (total == 0) {
+            return -1;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * quantile));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i].sum();
+            if (seen >= target) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(BUCKET_COUNT - 1);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+}
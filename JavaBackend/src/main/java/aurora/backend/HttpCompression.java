@@ -0,0 +1,282 @@
+package aurora.backend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.http.HttpHeaders;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * gzip / deflate 压缩
+ *
+ * 服务端：
+ *   - 请求体带 Content-Encoding: gzip / deflate 时边读边解压，大小限制按解压后的字节数计算（见 JsonCodec.readRequest），
+ *     其他编码返回 415
+ *   - 客户端的 Accept-Encoding 允许时压缩响应；JSON 响应小于 response.compression.min-bytes 时不压缩，
+ *     NDJSON 流按行 flush（SYNC_FLUSH），SSE 每个事件只有几个字，不压缩
+ * 上游：
+ *   - 非流式调用带上 Accept-Encoding: gzip，响应按 Content-Encoding 解压；流式调用不要求压缩，避免上游攒包
+ *   - upstream.<provider>.gzip-requests 开启时，超过 min-bytes 的请求体以 gzip 发送（需要上游支持，默认关闭）
+ *
+ * 配置项：
+ *   response.compression.enabled    是否压缩响应，默认 true
+ *   response.compression.min-bytes  压缩阈值，默认 1024
+ *   response.compression.level      压缩级别 1-9，默认 6
+ */
+public final class HttpCompression {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final boolean RESPONSE_ENABLED = ServerConfig.getBoolean("response.compression.enabled", true);
+    public static final int MIN_BYTES = ServerConfig.getInt("response.compression.min-bytes", 1024);
+    private static final int LEVEL = Math.max(1, Math.min(9, ServerConfig.getInt("response.compression.level", 6)));
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final LongAdder DECODED_REQUESTS = new LongAdder();
+    private static final LongAdder COMPRESSED_RESPONSES = new LongAdder();
+    private static final LongAdder COMPRESSED_UPSTREAM_REQUESTS = new LongAdder();
+    private static final LongAdder DECODED_UPSTREAM_RESPONSES = new LongAdder();
+
+    private HttpCompression() {
+    }
+
+    // ---- 服务端请求 / 响应 ----
+
+    /**
+     * 按 Content-Encoding 包装请求体，返回解压后的流
+     * @throws HttpStatusException 415，不支持的编码
+     */
+    public static InputStream requestBody(HttpExchange exchange) throws HttpStatusException {
+        String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        InputStream body = exchange.getRequestBody();
+        if (encoding == null || encoding.isBlank() || "identity".equalsIgnoreCase(encoding.trim())) {
+            return body;
+        }
+        InputStream decoded = decode(body, encoding);
+        if (decoded == null) {
+            throw new HttpStatusException(415, "不支持的 Content-Encoding: " + encoding);
+        }
+        DECODED_REQUESTS.increment();
+        return decoded;
+    }
+
+    /**
+     * 按客户端的 Accept-Encoding 选择响应编码
+     * @return gzip / deflate，不压缩时返回 null
+     */
+    public static String negotiate(HttpExchange exchange) {
+        if (!RESPONSE_ENABLED) {
+            return null;
+        }
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (accept == null) {
+            return null;
+        }
+        boolean deflate = false;
+        for (String part : accept.split(",")) {
+            String[] params = part.trim().split(";");
+            String coding = params[0].trim().toLowerCase(Locale.ROOT);
+            if (isRejected(params)) {
+                continue;
+            }
+            if (GZIP.equals(coding) || "x-gzip".equals(coding)) {
+                return GZIP;
+            }
+            if (DEFLATE.equals(coding)) {
+                deflate = true;
+            }
+        }
+        return deflate ? DEFLATE : null;
+    }
+
+    /**
+     * q=0 表示客户端明确不接受这种编码
+     */
+    private static boolean isRejected(String[] params) {
+        for (int i = 1; i < params.length; i++) {
+            String param = params[i].trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2)) <= 0;
+                } catch (NumberFormatException e) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 写出响应头，返回（可能经过压缩的）响应体输出流；关闭返回的流即结束响应
+     * @param encoding negotiate 的结果，为 null 时不压缩
+     * @param length 未压缩的响应长度，0 表示分块传输；压缩时总是分块传输
+     * @param syncFlush 流式响应需要每次 flush 都把已压缩的数据发出去
+     */
+    public static OutputStream startResponse(HttpExchange exchange, int status, long length, String encoding,
+            boolean syncFlush) throws IOException {
+        if (encoding == null) {
+            exchange.sendResponseHeaders(status, length);
+            return exchange.getResponseBody();
+        }
+        exchange.getResponseHeaders().set("Content-Encoding", encoding);
+        exchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+        exchange.sendResponseHeaders(status, 0);
+        COMPRESSED_RESPONSES.increment();
+        OutputStream body = exchange.getResponseBody();
+        if (GZIP.equals(encoding)) {
+            return new LeveledGzipOutputStream(body, syncFlush);
+        }
+        return new DeflaterOutputStream(body, new Deflater(LEVEL), BUFFER_SIZE, syncFlush) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    def.end();
+                }
+            }
+        };
+    }
+
+    // ---- 上游 ----
+
+    /**
+     * 把请求体压缩成 gzip，字符串直接编码进压缩流，不生成未压缩的 byte[]
+     */
+    public static byte[] gzip(String body) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, body.length() / 4));
+        try (Writer writer = new OutputStreamWriter(new LeveledGzipOutputStream(buffer, false), StandardCharsets.UTF_8)) {
+            writer.write(body);
+        } catch (IOException e) {
+            // 写内存缓冲区不会失败
+            throw new UncheckedIOException(e);
+        }
+        COMPRESSED_UPSTREAM_REQUESTS.increment();
+        return buffer.toByteArray();
+    }
+
+    /**
+     * 上游响应的 Content-Encoding，没有或为 identity 时返回 null
+     */
+    public static String contentEncoding(HttpHeaders headers) {
+        String encoding = headers.firstValue("Content-Encoding").orElse(null);
+        if (encoding == null || encoding.isBlank() || "identity".equalsIgnoreCase(encoding.trim())) {
+            return null;
+        }
+        return encoding.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 包装上游响应流（边读边解压）；上游没有压缩时原样返回
+     */
+    public static InputStream decodeUpstream(InputStream body, String encoding) {
+        if (encoding == null) {
+            return body;
+        }
+        InputStream decoded = decode(body, encoding);
+        if (decoded == null) {
+            throw new UncheckedIOException(new IOException("不支持的上游 Content-Encoding: " + encoding));
+        }
+        DECODED_UPSTREAM_RESPONSES.increment();
+        return decoded;
+    }
+
+    /**
+     * @return 解压流；不支持的编码返回 null
+     */
+    private static InputStream decode(InputStream in, String encoding) {
+        switch (encoding.trim().toLowerCase(Locale.ROOT)) {
+            case GZIP:
+            case "x-gzip":
+                return new LazyGzipInputStream(in);
+            case DEFLATE:
+                return new InflaterInputStream(in);
+            default:
+                return null;
+        }
+    }
+
+    public static long getDecodedRequests() {
+        return DECODED_REQUESTS.sum();
+    }
+
+    public static long getCompressedResponses() {
+        return COMPRESSED_RESPONSES.sum();
+    }
+
+    public static long getCompressedUpstreamRequests() {
+        return COMPRESSED_UPSTREAM_REQUESTS.sum();
+    }
+
+    public static long getDecodedUpstreamResponses() {
+        return DECODED_UPSTREAM_RESPONSES.sum();
+    }
+
+    /**
+     * 可以指定压缩级别的 GZIPOutputStream
+     */
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+        LeveledGzipOutputStream(OutputStream out, boolean syncFlush) throws IOException {
+            super(out, BUFFER_SIZE, syncFlush);
+            def.setLevel(LEVEL);
+        }
+    }
+
+    /**
+     * GZIPInputStream 在构造时就会读取 gzip 头，在这里推迟到第一次读取，
+     * 避免在 HttpClient 的回调线程或还没开始读请求体时阻塞
+     */
+    private static final class LazyGzipInputStream extends FilterInputStream {
+        private final InputStream raw;
+        private boolean opened;
+
+        LazyGzipInputStream(InputStream raw) {
+            super(raw);
+            this.raw = raw;
+        }
+
+        private InputStream open() throws IOException {
+            if (!opened) {
+                in = new GZIPInputStream(raw, BUFFER_SIZE);
+                opened = true;
+            }
+            return in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return open().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return open().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return opened ? in.available() : 0;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return open().skip(n);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package aurora.backend;
+
+/**
+ * 需要以特定 HTTP 状态码返回给客户端的错误（例如 400 / 413 / 429）
+ * 普通 Exception 仍然按 500 处理
+ */
+public class HttpStatusException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+    private final long retryAfterSeconds;
+
+    public HttpStatusException(int status, String message) {
+        this(status, message, 0);
+    }
+
+    /**
+     * @param retryAfterSeconds 大于 0 时响应带上 Retry-After 头
+     */
+    public HttpStatusException(int status, String message, long retryAfterSeconds) {
+        super(message);
+        this.status = status;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * 建议客户端等待的秒数，0 表示不带 Retry-After
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
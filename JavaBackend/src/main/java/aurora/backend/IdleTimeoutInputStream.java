@@ -0,0 +1,114 @@
+package aurora.backend;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带空闲超时的上游响应体
+ *
+ * HttpRequest.timeout 只约束响应头到达之前的时间，之后读响应体没有任何超时。
+ * 这里在每次 read 阻塞超过时限时由看门狗关闭底层流（取消 HttpClient 的订阅、释放连接），
+ * 阻塞中的 read 随即返回，并以 HttpTimeoutException 抛出。
+ * 只计算阻塞在 read 里的时间，调用方两次 read 之间的处理（例如等客户端写完）不算空闲。
+ */
+final class IdleTimeoutInputStream extends FilterInputStream implements Runnable {
+
+    // 所有响应体共用一个看门狗线程，只做时间比较和关闭
+    private static final ScheduledThreadPoolExecutor WATCHDOG = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "aurora-idle-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        WATCHDOG.setRemoveOnCancelPolicy(true);
+    }
+
+    private final long idleTimeoutMs;
+    private final long idleTimeoutNanos;
+    private final ScheduledFuture<?> task;
+    // 开始阻塞读取的时间，0 表示当前不在 read 里
+    private volatile long waitingSince;
+    private volatile boolean expired;
+
+    private IdleTimeoutInputStream(InputStream in, long idleTimeoutMs) {
+        super(in);
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+        // 检查间隔取超时的 1/4，实际触发时间在 1 到 1.25 倍超时之间
+        long period = Math.max(10, idleTimeoutMs / 4);
+        this.task = WATCHDOG.scheduleWithFixedDelay(this, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param idleTimeoutMs 单次 read 允许阻塞的最长时间（毫秒），不大于 0 时原样返回
+     */
+    static InputStream wrap(InputStream in, long idleTimeoutMs) {
+        return idleTimeoutMs > 0 ? new IdleTimeoutInputStream(in, idleTimeoutMs) : in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        waitingSince = System.nanoTime();
+        int b;
+        try {
+            b = super.read();
+        } catch (IOException e) {
+            checkExpired();
+            throw e;
+        } finally {
+            waitingSince = 0;
+        }
+        checkExpired();
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        waitingSince = System.nanoTime();
+        int n;
+        try {
+            n = super.read(b, off, len);
+        } catch (IOException e) {
+            checkExpired();
+            throw e;
+        } finally {
+            waitingSince = 0;
+        }
+        checkExpired();
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        task.cancel(false);
+        super.close();
+    }
+
+    @Override
+    public void run() {
+        long since = waitingSince;
+        if (since == 0 || expired || System.nanoTime() - since < idleTimeoutNanos) {
+            return;
+        }
+        expired = true;
+        task.cancel(false);
+        EventLog.warn("upstream.body-idle", "idleMs", idleTimeoutMs);
+        try {
+            in.close();
+        } catch (IOException e) {
+            EventLog.debug("upstream.body-close-failed", "error", e.getMessage());
+        }
+    }
+
+    private void checkExpired() throws HttpTimeoutException {
+        if (expired) {
+            throw new HttpTimeoutException("上游响应体超过 " + idleTimeoutMs + " ms 没有数据");
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package aurora.backend;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 异步任务的状态日志 - 只追加写入的内存映射文件
+ *
+ * 每条记录是某个任务在某一时刻的完整状态：[长度 int][CRC32 int][UTF-8 JSON]，同一任务以最后一条为准。
+ * 内存中只保留 任务 ID -> 最新记录位置 的索引，查询时直接从映射区读出并解析，结果不在堆上再存一份。
+ * 映射区写满时按两倍扩大；失效记录占一半以上（且文件超过 job.log.compact-bytes）时，
+ * 把仍然有效的最新记录写到临时文件后原子替换，顺带清理超过 job.ttl-ms 的已结束任务。
+ * 启动时从头扫描到第一条长度为 0 或校验失败的记录（进程异常退出时最后一条可能不完整）。
+ *
+ * 写入映射区的数据在进程崩溃后仍然由操作系统写回磁盘；任务结束（done / failed）的记录额外 force 一次，
+ * 保证机器掉电后结果也不丢。文件无法打开时退化为只保存在内存中。
+ *
+ * 配置项：
+ *   job.log.file           日志文件路径，默认为空（只保存在内存，重启后任务丢失）；
+ *                          相对路径按进程工作目录解析，启动时在 job-log.loaded 事件里记录解析后的绝对路径
+ *   job.log.initial-bytes  初始映射大小，默认 4MB
+ *   job.log.compact-bytes  文件超过多大才考虑压缩，默认 8MB
+ *   job.ttl-ms             已结束任务的保留时间，默认 24 小时
+ */
+public final class JobLog {
+
+    // 记录头：长度 + CRC32
+    private static final int HEADER_BYTES = 8;
+    // 单条记录上限，超过视为文件损坏
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+    // 每追加这么多条记录清理一次过期任务
+    private static final int SWEEP_INTERVAL = 1024;
+
+    private final Path file;
+    private final long ttlMillis;
+    private final long compactBytes;
+    private final int initialBytes;
+
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    // 下一条记录的写入位置
+    private int position;
+    // 仍然有效的记录字节数
+    private long liveBytes;
+    private long appends;
+
+    private final Map<String, Entry> index = new HashMap<>();
+
+    private final AtomicLong compactions = new AtomicLong();
+
+    JobLog(String filePath, int initialBytes, long compactBytes, long ttlMillis) {
+        this.file = (filePath == null || filePath.isEmpty()) ? null : Paths.get(filePath).toAbsolutePath().normalize();
+        this.initialBytes = Math.max(64 * 1024, initialBytes);
+        this.compactBytes = compactBytes;
+        this.ttlMillis = ttlMillis;
+        if (file != null) {
+            open();
+        } else {
+            EventLog.info("job-log.memory-only");
+        }
+    }
+
+    static JobLog fromConfig() {
+        return new JobLog(
+            ServerConfig.getString("job.log.file", ""),
+            ServerConfig.getInt("job.log.initial-bytes", 4 * 1024 * 1024),
+            ServerConfig.getLong("job.log.compact-bytes", 8L * 1024 * 1024),
+            ServerConfig.getLong("job.ttl-ms", 24 * 60 * 60_000L));
+    }
+
+    /**
+     * 追加一条任务状态（record 里必须有 id、status、updatedAt）
+     * 状态为 done / failed 时视为任务已结束，写入后立即 force
+     */
+    public synchronized void append(JSONObject record) {
+        boolean terminal = isTerminal(record.getString("status"));
+        String id = record.getString("id");
+        Entry previous = index.get(id);
+        if (previous != null) {
+            liveBytes -= previous.length;
+        }
+        Entry entry = new Entry(record.getLong("updatedAt"), terminal);
+        // 调用方之后还会修改 record，这里只保存当时的快照
+        String json = record.toString();
+        if (mapped != null) {
+            byte[] payload = json.getBytes(StandardCharsets.UTF_8);
+            try {
+                entry.offset = write(payload, terminal);
+                entry.length = HEADER_BYTES + payload.length;
+            } catch (IOException e) {
+                EventLog.warn("job-log.write-failed", "file", file, "error", e.getMessage());
+                moveIntoMemory();
+                closeFile();
+            }
+        }
+        if (mapped == null) {
+            entry.record = new JSONObject(json);
+            entry.length = 0;
+        }
+        index.put(id, entry);
+        liveBytes += entry.length;
+        if (++appends % SWEEP_INTERVAL == 0) {
+            removeExpired(System.currentTimeMillis());
+        }
+        maybeCompact();
+    }
+
+    /**
+     * 读取任务的最新状态；不存在或已过期时返回 null
+     */
+    public synchronized JSONObject get(String id) {
+        Entry entry = index.get(id);
+        if (entry == null) {
+            return null;
+        }
+        if (isExpired(entry, System.currentTimeMillis())) {
+            index.remove(id);
+            liveBytes -= entry.length;
+            return null;
+        }
+        if (entry.record != null) {
+            return new JSONObject(entry.record.toString());
+        }
+        return read(entry.offset);
+    }
+
+    /**
+     * 还没有结束的任务 ID（启动时用于把重启前中断的任务标记为失败）
+     */
+    public synchronized List<String> unfinished() {
+        List<String> ids = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : index.entrySet()) {
+            if (!e.getValue().terminal) {
+                ids.add(e.getKey());
+            }
+        }
+        return ids;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * 日志文件已使用的字节数
+     */
+    public synchronized long sizeInBytes() {
+        return position;
+    }
+
+    public long getCompactions() {
+        return compactions.get();
+    }
+
+    // ---- 文件读写 ----
+
+    private void open() {
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+            long size = Math.max(channel.size(), initialBytes);
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(size, Integer.MAX_VALUE));
+            replay(System.currentTimeMillis());
+            EventLog.info("job-log.loaded", "file", file, "jobs", index.size(), "bytes", position);
+            maybeCompact();
+        } catch (IOException e) {
+            EventLog.warn("job-log.open-failed", "file", file, "error", e.getMessage());
+            closeFile();
+        }
+    }
+
+    /**
+     * 从头扫描记录，建立索引
+     */
+    private void replay(long now) {
+        position = 0;
+        while (position + HEADER_BYTES <= mapped.capacity()) {
+            int length = mapped.getInt(position);
+            if (length <= 0 || length > MAX_RECORD_BYTES || position + HEADER_BYTES + length > mapped.capacity()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            mapped.get(position + HEADER_BYTES, payload);
+            if (crc(payload) != mapped.getInt(position + 4)) {
+                break;
+            }
+            try {
+                JSONObject record = new JSONObject(new String(payload, StandardCharsets.UTF_8));
+                String id = record.getString("id");
+                Entry entry = new Entry(record.getLong("updatedAt"), isTerminal(record.getString("status")));
+                entry.offset = position;
+                entry.length = HEADER_BYTES + length;
+                Entry previous = index.put(id, entry);
+                if (previous != null) {
+                    liveBytes -= previous.length;
+                }
+                liveBytes += entry.length;
+            } catch (JSONException e) {
+                break;
+            }
+            position += HEADER_BYTES + length;
+        }
+        // 清掉不完整记录之后的残留，避免下次启动误读
+        if (position + HEADER_BYTES <= mapped.capacity()) {
+            mapped.putInt(position, 0);
+        }
+        removeExpired(now);
+    }
+
+    private void removeExpired(long now) {
+        for (Iterator<Entry> it = index.values().iterator(); it.hasNext();) {
+            Entry entry = it.next();
+            if (isExpired(entry, now)) {
+                liveBytes -= entry.length;
+                it.remove();
+            }
+        }
+    }
+
+    private int write(byte[] payload, boolean force) throws IOException {
+        int needed = HEADER_BYTES + payload.length;
+        // 留出 4 字节写结束标记
+        if ((long) position + needed + 4 > mapped.capacity()) {
+            grow((long) position + needed + 4);
+        }
+        int offset = position;
+        mapped.putInt(offset + 4, crc(payload));
+        mapped.put(offset + HEADER_BYTES, payload);
+        mapped.putInt(offset + needed, 0);
+        // 长度最后写，扫描时长度非 0 就说明记录体已经写完
+        mapped.putInt(offset, payload.length);
+        position += needed;
+        if (force) {
+            mapped.force(offset, needed);
+        }
+        return offset;
+    }
+
+    private void grow(long required) throws IOException {
+        long capacity = mapped.capacity();
+        while (capacity < required) {
+            capacity *= 2;
+        }
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("任务日志超过 2GB");
+        }
+        mapped.force();
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private JSONObject read(int offset) {
+        ByteBuffer view = mapped.duplicate();
+        int length = view.getInt(offset);
+        byte[] payload = new byte[length];
+        view.get(offset + HEADER_BYTES, payload);
+        return new JSONObject(new String(payload, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 失效记录占一半以上时，只把每个任务的最新记录写到新文件
+     */
+    private void maybeCompact() {
+        if (mapped == null || position < compactBytes || liveBytes * 2 > position) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Map<String, Entry> compacted = new HashMap<>();
+            int written = 0;
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator(); it.hasNext();) {
+                    Map.Entry<String, Entry> e = it.next();
+                    Entry entry = e.getValue();
+                    if (isExpired(entry, now)) {
+                        continue;
+                    }
+                    ByteBuffer record = mapped.duplicate();
+                    record.position(entry.offset).limit(entry.offset + entry.length);
+                    while (record.hasRemaining()) {
+                        out.write(record);
+                    }
+                    Entry moved = new Entry(entry.updatedAt, entry.terminal);
+                    moved.offset = written;
+                    moved.length = entry.length;
+                    compacted.put(e.getKey(), moved);
+                    written += entry.length;
+                }
+                out.write(ByteBuffer.allocate(4));
+                out.force(true);
+            }
+            mapped.force();
+            channel.close();
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(initialBytes, (long) written * 2));
+            index.clear();
+            index.putAll(compacted);
+            position = written;
+            liveBytes = written;
+            compactions.incrementAndGet();
+            EventLog.info("job-log.compacted", "jobs", index.size(), "bytes", written);
+        } catch (IOException e) {
+            EventLog.warn("job-log.compact-failed", "file", file, "error", e.getMessage());
+            moveIntoMemory();
+            closeFile();
+        }
+    }
+
+    /**
+     * 放弃文件之前把还在映射区里的记录读到内存
+     */
+    private void moveIntoMemory() {
+        for (Entry entry : index.values()) {
+            if (entry.record == null) {
+                try {
+                    entry.record = read(entry.offset);
+                } catch (RuntimeException e) {
+                    // 映射区已不可用，丢弃这条
+                }
+            }
+            entry.length = 0;
+        }
+        index.values().removeIf(entry -> entry.record == null);
+        liveBytes = 0;
+    }
+
+    private void closeFile() {
+        mapped = null;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // 关闭失败不影响内存中的任务
+            }
+            channel = null;
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return entry.terminal && now - entry.updatedAt > ttlMillis;
+    }
+
+    static boolean isTerminal(String status) {
+        return "done".equals(status) || "failed".equals(status);
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 索引项：最新记录在映射区里的位置（只保存在内存时直接持有记录）
+     */
+    private static final class Entry {
+        final long updatedAt;
+        final boolean terminal;
+        int offset;
+        int length;
+        JSONObject record;
+
+        Entry(long updatedAt, boolean terminal) {
+            this.updatedAt = updatedAt;
+            this.terminal = terminal;
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package aurora.backend;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * 请求 / 响应编解码
+ *
+ * - 请求体直接从输入流解析成 JSONObject，不再先读成 byte[] 和 String；
+ *   超过 request.max-bytes（默认 2MB）时返回 413，带 Content-Length 的请求在读取之前就会被拒绝
+ * - 上游的非流式响应只扫描出 choices[0].message.content，不构建完整的 JSON 树
+ * - 响应直接序列化到响应体输出流，省掉中间的 String 和完整的字节缓冲区：
+ *   只缓冲开头 response.compression.min-bytes 个字节，写完仍不超过时带 Content-Length 原样发出，
+ *   超过时改为分块传输（客户端接受时压缩），缓冲的部分先写出，其余边序列化边发送
+ * - 请求体和响应的 gzip / deflate 见 HttpCompression：请求体边读边解压，响应边写边压缩
+ */
+public final class JsonCodec {
+
+    public static final int MAX_REQUEST_BYTES = ServerConfig.getInt("request.max-bytes", 2 * 1024 * 1024);
+
+    private JsonCodec() {
+    }
+
+    /**
+     * 读取并解析请求体
+     * @throws HttpStatusException 请求体过大（413）或不是合法的 JSON 对象（400）
+     */
+    public static JSONObject readRequest(HttpExchange exchange) throws IOException, HttpStatusException {
+        return readRequest(exchange, MAX_REQUEST_BYTES);
+    }
+
+    public static JSONObject readRequest(HttpExchange exchange, int maxBytes) throws IOException, HttpStatusException {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null) {
+            try {
+                if (Long.parseLong(contentLength.trim()) > maxBytes) {
+                    throw tooLarge(maxBytes);
+                }
+            } catch (NumberFormatException e) {
+                throw new HttpStatusException(400, "Content-Length 无效");
+            }
+        }
+
+        // 压缩的请求体按解压后的大小限制，防止压缩炸弹
+        LimitedInputStream body = new LimitedInputStream(HttpCompression.requestBody(exchange), maxBytes);
+        try (Reader reader = new InputStreamReader(body, StandardCharsets.UTF_8)) {
+            return new JSONObject(new JSONTokener(reader));
+        } catch (JSONException e) {
+            if (body.exceeded) {
+                throw tooLarge(maxBytes);
+            }
+            if (e.getCause() instanceof ZipException || e.getCause() instanceof EOFException) {
+                throw new HttpStatusException(400, "请求体解压失败: " + e.getCause().getMessage());
+            }
+            throw new HttpStatusException(400, "请求体不是合法的 JSON: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 写出 JSON 响应并关闭 exchange；客户端接受压缩且响应超过 response.compression.min-bytes 时压缩
+     */
+    public static void sendJson(HttpExchange exchange, int status, JSONObject body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        try (Writer writer = new OutputStreamWriter(new ResponseStream(exchange, status), StandardCharsets.UTF_8)) {
+            body.write(writer);
+        }
+    }
+
+    /**
+     * 写出 {"error": message, "success": false}
+     */
+    public static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        JSONObject error = new JSONObject();
+        error.put("error", message);
+        error.put("success", false);
+        sendJson(exchange, status, error);
+    }
+
+    /**
+     * 从 OpenAI 兼容的非流式响应中取出 choices[0].message.content
+     * 只做一次顺序扫描，其余字段直接跳过；读完后把剩余字节读空，保证连接可以复用
+     * @param upstream 上游响应体，方法返回时已关闭
+     * @return 回复内容，响应里没有这个字段时返回 null
+     */
+    public static String extractMessageContent(InputStream upstream) throws IOException {
+        try (InputStream in = upstream) {
+            Scanner scanner = new Scanner(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String content = scanner.findMessageContent();
+            in.transferTo(OutputStream.nullOutputStream());
+            return content;
+        }
+    }
+
+    /**
+     * 从上游响应流直接解析一个 JSON 对象（边解压边解析，不先读成字符串）；读完后把剩余字节读空
+     * @param upstream 上游响应体，方法返回时已关闭
+     * @throws JSONException 响应不是合法的 JSON 对象
+     */
+    public static JSONObject readObject(InputStream upstream) throws IOException {
+        try (InputStream in = upstream) {
+            JSONObject object = new JSONObject(new JSONTokener(new InputStreamReader(in, StandardCharsets.UTF_8)));
+            in.transferTo(OutputStream.nullOutputStream());
+            return object;
+        }
+    }
+
+    /**
+     * 读取上游错误响应的开头部分（用于错误信息），最多 maxChars 个字符
+     * @param upstream 上游响应体，方法返回时已关闭
+     */
+    public static String readPrefix(InputStream upstream, int maxChars) throws IOException {
+        try (Reader reader = new InputStreamReader(upstream, StandardCharsets.UTF_8)) {
+            char[] buffer = new char[maxChars];
+            int length = 0;
+            int n;
+            while (length < maxChars && (n = reader.read(buffer, length, maxChars - length)) > 0) {
+                length += n;
+            }
+            return new String(buffer, 0, length);
+        }
+    }
+
+    private static HttpStatusException tooLarge(int maxBytes) {
+        return new HttpStatusException(413, "请求体超过大小限制 (" + maxBytes + " 字节)");
+    }
+
+    /**
+     * 超过上限后不再读取的输入流
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+        boolean exceeded;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            // 最多多读 1 个字节，用来判断是否超限
+            int n = super.read(b, off, (int) Math.min(len, limit - count + 1));
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) throws IOException {
+            count += n;
+            if (count > limit) {
+                exceeded = true;
+                throw new IOException("请求体超过大小限制");
+            }
+        }
+    }
+
+    /**
+     * JSON 响应体：开头 MIN_BYTES 个字节先留在缓冲区，写满之前不发响应头；
+     * 关闭时仍未写满则带 Content-Length 不压缩发出，写满时改为分块传输并按 Accept-Encoding 压缩
+     */
+    private static final class ResponseStream extends OutputStream {
+        private final HttpExchange exchange;
+        private final int status;
+        private final byte[] head = new byte[Math.max(1, HttpCompression.MIN_BYTES)];
+        private int count;
+        // 响应头发出之后的响应体输出流
+        private OutputStream out;
+
+        ResponseStream(HttpExchange exchange, int status) {
+            this.exchange = exchange;
+            this.status = status;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (out == null && count + len < head.length) {
+                System.arraycopy(b, off, head, count, len);
+                count += len;
+                return;
+            }
+            if (out == null) {
+                out = HttpCompression.startResponse(exchange, status, 0, HttpCompression.negotiate(exchange), false);
+                out.write(head, 0, count);
+            }
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out == null) {
+                out = HttpCompression.startResponse(exchange, status, count > 0 ? count : -1, null, false);
+                out.write(head, 0, count);
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * 极简的顺序 JSON 扫描器，只支持定位 choices[0].message.content
+     */
+    private static final class Scanner {
+        private final Reader reader;
+        private final char[] buffer = new char[4096];
+        private int pos;
+        private int limit;
+
+        Scanner(Reader reader) {
+            this.reader = reader;
+        }
+
+        String findMessageContent() throws IOException {
+            if (!enterObject()) {
+                return null;
+            }
+            while (nextKeyInObject()) {
+                String key = readString();
+                expect(':');
+                if (!"choices".equals(key)) {
+                    skipValue();
+                    continue;
+                }
+                if (peek() != '[') {
+                    return null;
+                }
+                read();
+                if (peek() == ']' || !enterObject()) {
+                    return null;
+                }
+                while (nextKeyInObject()) {
+                    String choiceKey = readString();
+                    expect(':');
+                    if (!"message".equals(choiceKey)) {
+                        skipValue();
+                        continue;
+                    }
+                    if (!enterObject()) {
+                        return null;
+                    }
+                    while (nextKeyInObject()) {
+                        String messageKey = readString();
+                        expect(':');
+                        if ("content".equals(messageKey)) {
+                            return peek() == '"' ? readString() : null;
+                        }
+                        skipValue();
+                    }
+                    return null;
+                }
+                return null;
+            }
+            return null;
+        }
+
+        /**
+         * 下一个值是对象时进入对象并返回 true，否则跳过该值返回 false
+         */
+        private boolean enterObject() throws IOException {
+            if (peek() == '{') {
+                read();
+                return true;
+            }
+            skipValue();
+            return false;
+        }
+
+        /**
+         * 在对象内部移动到下一个键；对象结束时返回 false
+         */
+        private boolean nextKeyInObject() throws IOException {
+            int c = peek();
+            if (c == ',') {
+                read();
+                c = peek();
+            }
+            if (c == '}') {
+                read();
+                return false;
+            }
+            if (c != '"') {
+                throw new IOException("上游响应格式错误: 期望字段名");
+            }
+            return true;
+        }
+
+        private void skipValue() throws IOException {
+            int c = peek();
+            if (c == '"') {
+                skipString();
+            } else if (c == '{' || c == '[') {
+                int depth = 0;
+                do {
+                    c = read();
+                    if (c == '"') {
+                        pos--;
+                        skipString();
+                    } else if (c == '{' || c == '[') {
+                        depth++;
+                    } else if (c == '}' || c == ']') {
+                        depth--;
+                    } else if (c < 0) {
+                        throw new IOException("上游响应不完整");
+                    }
+                } while (depth > 0);
+            } else {
+                // 数字、true / false / null
+                while (true) {
+                    c = peekRaw();
+                    if (c < 0 || c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+                        return;
+                    }
+                    pos++;
+                }
+            }
+        }
+
+        private void skipString() throws IOException {
+            expect('"');
+            while (true) {
+                int c = read();
+                if (c == '\\') {
+                    read();
+                } else if (c == '"') {
+                    return;
+                } else if (c < 0) {
+                    throw new IOException("上游响应不完整");
+                }
+            }
+        }
+
+        private String readString() throws IOException {
+            expect('"');
+            StringBuilder out = new StringBuilder();
+            while (true) {
+                int c = read();
+                if (c < 0) {
+                    throw new IOException("上游响应不完整");
+                }
+                if (c == '"') {
+                    return out.toString();
+                }
+                if (c != '\\') {
+                    out.append((char) c);
+                    continue;
+                }
+                c = read();
+                switch (c) {
+                    case 'n': out.append('\n'); break;
+                    case 't': out.append('\t'); break;
+                    case 'r': out.append('\r'); break;
+                    case 'b': out.append('\b'); break;
+                    case 'f': out.append('\f'); break;
+                    case 'u': {
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(read(), 16);
+                            if (digit < 0) {
+                                throw new JSONException("上游响应格式错误: \\u 转义不是 4 位十六进制数");
+                            }
+                            code = (code << 4) | digit;
+                        }
+                        out.append((char) code);
+                        break;
+                    }
+                    default: out.append((char) c);
+                }
+            }
+        }
+
+        private void expect(char expected) throws IOException {
+            int c = peek();
+            if (c != expected) {
+                throw new IOException("上游响应格式错误: 期望 '" + expected + "'");
+            }
+            pos++;
+        }
+
+        /**
+         * 跳过空白后查看下一个字符
+         */
+        private int peek() throws IOException {
+            while (true) {
+                int c = peekRaw();
+                if (c < 0 || !Character.isWhitespace(c)) {
+                    return c;
+                }
+                pos++;
+            }
+        }
+
+        private int peekRaw() throws IOException {
+            if (pos >= limit && !fill()) {
+                return -1;
+            }
+            return buffer[pos];
+        }
+
+        private int read() throws IOException {
+            if (pos >= limit && !fill()) {
+                return -1;
+            }
+            return buffer[pos++];
+        }
+
+        private boolean fill() throws IOException {
+            limit = reader.read(buffer, 0, buffer.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package aurora.backend;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * 长网页分段总结（map-reduce）
+ *
+ * 正文超过阈值时，按段落 / 句子边界切成若干不超过 token 预算的分段，
+ * 以有限并发同时总结各分段，最后再做一次合并总结。
+ * 分段结果按完成顺序汇报进度，合并阶段可以流式输出。
+ *
+ * 配置项：
+ *   summary.long.threshold-tokens 超过多少 token 视为长网页，默认 6000
+ *   summary.long.chunk-tokens     每个分段的 token 预算，默认 3000
+ *   summary.long.parallelism      同一篇网页同时进行的分段请求数，默认 4
+ *   summary.long.max-threads      所有网页合计同时进行的分段请求数（分段线程池大小），默认 max(并发数, CPU 核数 * 4)，
+ *                                 超出的分段排队等待
+ */
+public final class LongDocumentSummariser {
+
+    /**
+     * 分段进度回调，只会在调用 summarise 的线程上触发
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void onProgress(int completed, int total) throws IOException;
+    }
+
+    private static final int THRESHOLD_TOKENS = ServerConfig.getInt("summary.long.threshold-tokens", 6000);
+    private static final int CHUNK_TOKENS = ServerConfig.getInt("summary.long.chunk-tokens", 3000);
+    private static final int PARALLELISM = Math.max(1, ServerConfig.getInt("summary.long.parallelism", 4));
+
+    private static final String CHUNK_PROMPT = "以下是一篇较长网页的第 %d/%d 部分，请提取这一部分的关键信息，用要点列出，控制在150字以内：\n\n";
+    private static final String MERGE_PROMPT = "以下是同一网页各部分的要点，请据此总结整篇网页，提取关键信息，控制在200字以内：\n\n";
+
+    private static final Pattern PARAGRAPH_BREAK = Pattern.compile("\\n\\s*\\n");
+    private static final Pattern SENTENCE_BREAK = Pattern.compile("(?<=[。！？；!?;.])\\s*");
+
+    private static final int MAX_THREADS = Math.max(1, ServerConfig.getInt("summary.long.max-threads",
+        Math.max(PARALLELISM, Runtime.getRuntime().availableProcessors() * 4)));
+
+    // 固定上限的线程池：并发请求和批量条目各自的分段在这里排队，线程数不会随请求数增长。
+    // 每篇网页最多挂 PARALLELISM 个分段，队列长度因此受请求数限制
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    private static final ExecutorService CHUNK_EXECUTOR = newChunkExecutor();
+
+    private static ExecutorService newChunkExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "aurora-chunk-" + THREAD_COUNTER.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private LongDocumentSummariser() {
+    }
+
+    /**
+     * 是否需要走分段总结
+     */
+    public static boolean isLong(String pageContent) {
+        return TokenEstimator.estimate(pageContent) > THRESHOLD_TOKENS;
+    }
+
+    /**
+     * 分段总结
+     * @param progress 分段进度回调，可以为 null
+     * @param mergeListener 合并阶段的增量回调，为 null 时合并阶段不使用流式请求
+     * @return 最终总结
+     */
+    public static String summarise(String pageContent, String pageUrl, String apiKey, String model,
+            ProgressListener progress, CompletionStream.DeltaListener mergeListener) throws Exception {
+        List<String> chunks = split(pageContent, CHUNK_TOKENS);
+        EventLog.info("summary.long-document", "tokens", TokenEstimator.estimate(pageContent), "chunks", chunks.size());
+
+        String[] partials = mapChunks(chunks, apiKey, model, progress);
+
+        StringBuilder merged = new StringBuilder();
+        for (int i = 0; i < partials.length; i++) {
+            merged.append("【第 ").append(i + 1).append(" 部分】\n").append(partials[i].trim()).append("\n\n");
+        }
+
+        // 分段太多时要点本身也可能超出预算，再做一轮分段总结
+        if (isLong(merged.toString())) {
+            return summarise(merged.toString(), pageUrl, apiKey, model, null, mergeListener);
+        }
+
+        String prompt = MERGE_PROMPT;
+        if (pageUrl != null && !pageUrl.isEmpty()) {
+            prompt += "网址：" + pageUrl + "\n\n";
+        }
+        prompt += merged;
+        JSONArray messages = userMessage(prompt);
+        String summary = mergeListener != null
+            ? Server.chatSiliconFlowStream(messages, apiKey, model, mergeListener)
+            : Server.chatSiliconFlow(messages, apiKey, model);
+        return summary.trim();
+    }
+
+    /**
+     * 并发总结各分段：最多同时进行 PARALLELISM 个请求，一个完成后再补上下一个
+     */
+    private static String[] mapChunks(List<String> chunks, String apiKey, String model,
+            ProgressListener progress) throws Exception {
+        int total = chunks.size();
+        String[] partials = new String[total];
+        CompletionService<Integer> completion = new ExecutorCompletionService<>(CHUNK_EXECUTOR);
+        List<Future<Integer>> futures = new ArrayList<>(total);
+
+        int submitted = 0;
+        try {
+            for (; submitted < Math.min(PARALLELISM, total); submitted++) {
+                futures.add(submitChunk(completion, chunks, submitted, partials, apiKey, model));
+            }
+            for (int completed = 1; completed <= total; completed++) {
+                completion.take().get();
+                if (submitted < total) {
+                    futures.add(submitChunk(completion, chunks, submitted++, partials, apiKey, model));
+                }
+                if (progress != null) {
+                    progress.onProgress(completed, total);
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        } finally {
+            // 任何一段失败（或客户端断开）都取消剩余分段
+            for (Future<Integer> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return partials;
+    }
+
+    private static Future<Integer> submitChunk(CompletionService<Integer> completion, List<String> chunks,
+            int index, String[] partials, String apiKey, String model) {
+        return completion.submit(() -> {
+            String prompt = String.format(CHUNK_PROMPT, index + 1, chunks.size()) + chunks.get(index);
+            partials[index] = Server.chatSiliconFlow(userMessage(prompt), apiKey, model);
+            return index;
+        });
+    }
+
+    /**
+     * 按 token 预算切分正文：优先在段落边界切分，段落过长时按句子切分，句子仍过长时硬切
+     */
+    static List<String> split(String content, int chunkTokens) {
+        List<String> pieces = new ArrayList<>();
+        for (String paragraph : PARAGRAPH_BREAK.split(content)) {
+            if (paragraph.isBlank()) {
+                continue;
+            }
+            if (TokenEstimator.estimate(paragraph) <= chunkTokens) {
+                pieces.add(paragraph);
+                continue;
+            }
+            for (String sentence : SENTENCE_BREAK.split(paragraph)) {
+                if (TokenEstimator.estimate(sentence) <= chunkTokens) {
+                    pieces.add(sentence);
+                } else {
+                    int step = TokenEstimator.charsForTokens(chunkTokens);
+                    for (int start = 0; start < sentence.length(); start += step) {
+                        pieces.add(sentence.substring(start, Math.min(sentence.length(), start + step)));
+                    }
+                }
+            }
+        }
+
+        // 贪心地把相邻片段合并到预算以内
+        List<String> chunks = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int currentTokens = 0;
+        for (String piece : pieces) {
+            int tokens = TokenEstimator.estimate(piece);
+            if (currentTokens > 0 && currentTokens + tokens > chunkTokens) {
+                chunks.add(current.toString());
+                current.setLength(0);
+                currentTokens = 0;
+            }
+            if (current.length() > 0) {
+                current.append("\n\n");
+            }
+            current.append(piece);
+            currentTokens += tokens;
+        }
+        if (current.length() > 0) {
+            chunks.add(current.toString());
+        }
+        return chunks;
+    }
+
+    private static JSONArray userMessage(String prompt) {
+        JSONObject message = new JSONObject();
+        message.put("role", "user");
+        message.put("content", prompt);
+        JSONArray messages = new JSONArray();
+        messages.put(message);
+        return messages;
+    }
+}
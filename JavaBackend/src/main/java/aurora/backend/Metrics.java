@@ -0,0 +1,390 @@
+package aurora.backend;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * 运行指标 - 以 Prometheus 文本格式从 /metrics 导出
+ *
+ * 计数器用 LongAdder，直方图用 Histogram，记录时不加锁；
+ * 标签组合在第一次出现时创建对应的序列，之后只是一次 ConcurrentHashMap 查找。
+ *
+ * 主要指标：
+ *   aurora_requests_total / aurora_request_duration_seconds       按 endpoint、provider、model、status
+ *   aurora_request_bytes / aurora_response_bytes                  按 endpoint
+ *   aurora_requests_in_flight                                     按 endpoint
+ *   aurora_upstream_ttfb_seconds / aurora_upstream_duration_seconds 按 provider、model
+ *   aurora_upstream_responses_total                               按 provider、model、status
+ *
+ * model 标签来自客户端请求，只有已知的模型原样使用，其余都记为 "other"，避免序列数无限增长。
+ * 已知模型：客户端内置的模型列表、ragflow、routing.siliconflow.pools 里的模型，
+ * 以及 metrics.models 配置的模型（逗号分隔）。
+ */
+public final class Metrics {
+
+    // exchange 属性名：处理器解析出 provider / model 后写入，供请求结束时打标签
+    public static final String ATTR_PROVIDER = "aurora.provider";
+    public static final String ATTR_MODEL = "aurora.model";
+
+    private static final String OTHER_MODEL = "other";
+    private static final Set<String> KNOWN_MODELS = knownModels();
+
+    private static final Metrics SHARED = new Metrics();
+
+    private enum Type { COUNTER, GAUGE, HISTOGRAM }
+
+    /**
+     * 一个指标族：同名、不同标签的多个序列
+     */
+    private static final class Family {
+        final String name;
+        final String help;
+        final Type type;
+        // 直方图导出时把内部单位换算成 Prometheus 单位（例如微秒 -> 秒）
+        final double scale;
+        final long[] exportBounds;
+        final Map<String, Object> series = new ConcurrentHashMap<>();
+
+        Family(String name, String help, Type type, double scale, long[] exportBounds) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.scale = scale;
+            this.exportBounds = exportBounds;
+        }
+    }
+
+    // 延迟直方图的导出边界：256 微秒到约 134 秒之间的 2 的幂
+    private static final long[] LATENCY_BOUNDS_MICROS = powersOfTwo(8, 27);
+    // 大小直方图的导出边界：64 字节到 16MB 之间的 2 的幂
+    private static final long[] SIZE_BOUNDS_BYTES = powersOfTwo(6, 24);
+
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    private static Set<String> knownModels() {
+        Set<String> models = new HashSet<>(Arrays.asList("", "ragflow",
+            "Qwen/Qwen2.5-7B-Instruct", "Qwen/Qwen2.5-14B-Instruct", "Qwen/Qwen2.5-32B-Instruct",
+            "Qwen/Qwen2.5-72B-Instruct", "deepseek-ai/DeepSeek-V2.5"));
+        String configured = ServerConfig.getString("metrics.models", "") + ","
+            + ServerConfig.getString("routing.siliconflow.pools", "").replace(';', ',');
+        for (String model : configured.split(",")) {
+            if (!model.isBlank()) {
+                models.add(model.trim());
+            }
+        }
+        return Collections.unmodifiableSet(models);
+    }
+
+    /**
+     * 客户端传入的模型名转换成标签值：未知模型统一为 "other"
+     */
+    static String modelLabel(String model) {
+        if (model == null) {
+            return "";
+        }
+        return KNOWN_MODELS.contains(model) ? model : OTHER_MODEL;
+    }
+
+    public static Metrics shared() {
+        return SHARED;
+    }
+
+    /**
+     * 计数器
+     * @param labels 交替的标签名和标签值，例如 "endpoint", "/chat"
+     */
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) family(name, help, Type.COUNTER, 1, null)
+            .series.computeIfAbsent(labelString(labels), k -> new LongAdder());
+    }
+
+    /**
+     * 可增减的瞬时值
+     */
+    public AtomicLong gauge(String name, String help, String... labels) {
+        return (AtomicLong) family(name, help, Type.GAUGE, 1, null)
+            .series.computeIfAbsent(labelString(labels), k -> new AtomicLong());
+    }
+
+    /**
+     * 导出时才读取的瞬时值（用于缓存大小等已有的统计）
+     */
+    public void gauge(String name, String help, LongSupplier supplier, String... labels) {
+        family(name, help, Type.GAUGE, 1, null).series.put(labelString(labels), supplier);
+    }
+
+    /**
+     * 导出时才读取的累计值（用于已有组件自己维护的计数）
+     */
+    public void counter(String name, String help, LongSupplier supplier, String... labels) {
+        family(name, help, Type.COUNTER, 1, null).series.put(labelString(labels), supplier);
+    }
+
+    /**
+     * 延迟直方图，记录单位为微秒，导出单位为秒
+     */
+    public Histogram latency(String name, String help, String... labels) {
+        return (Histogram) family(name, help, Type.HISTOGRAM, 1e-6, LATENCY_BOUNDS_MICROS)
+            .series.computeIfAbsent(labelString(labels), k -> new Histogram());
+    }
+
+    /**
+     * 大小直方图，单位为字节
+     */
+    public Histogram size(String name, String help, String... labels) {
+        return (Histogram) family(name, help, Type.HISTOGRAM, 1, SIZE_BOUNDS_BYTES)
+            .series.computeIfAbsent(labelString(labels), k -> new Histogram());
+    }
+
+    /**
+     * 记录一次上游调用
+     * @param ttfbNanos 发出请求到收到响应头的时间
+     * @param totalNanos 发出请求到读完响应体的时间
+     */
+    public void recordUpstream(String provider, String model, int status, long ttfbNanos, long totalNanos) {
+        model = modelLabel(model);
+        latency("aurora_upstream_ttfb_seconds", "上游首字节时间",
+            "provider", provider, "model", model).record(ttfbNanos / 1000);
+        latency("aurora_upstream_duration_seconds", "上游调用总时间",
+            "provider", provider, "model", model).record(totalNanos / 1000);
+        counter("aurora_upstream_responses_total", "上游响应数（按状态码）",
+            "provider", provider, "model", model, "status", String.valueOf(status)).increment();
+    }
+
+    /**
+     * 记录一次没有拿到响应的上游调用（连接失败、超时等）
+     */
+    public void recordUpstreamError(String provider, String model, Throwable error) {
+        model = modelLabel(model);
+        counter("aurora_upstream_errors_total", "上游调用异常数（按异常类型）",
+            "provider", provider, "model", model, "error", error.getClass().getSimpleName()).increment();
+    }
+
+    /**
+     * 为接口处理器加上请求级指标：延迟、请求 / 响应字节数、进行中请求数、按状态码的计数
+     * provider / model 标签由处理器通过 exchange 属性 ATTR_PROVIDER / ATTR_MODEL 提供
+     */
+    public HttpHandler instrument(String endpoint, HttpHandler handler) {
+        AtomicLong inFlight = gauge("aurora_requests_in_flight", "正在处理的请求数", "endpoint", endpoint);
+        Histogram requestBytes = size("aurora_request_bytes", "请求体大小", "endpoint", endpoint);
+        Histogram responseBytes = size("aurora_response_bytes", "响应体大小", "endpoint", endpoint);
+        return exchange -> {
+            long start = System.nanoTime();
+            CountingInputStream in = new CountingInputStream(exchange.getRequestBody());
+            CountingOutputStream out = new CountingOutputStream(exchange.getResponseBody());
+            exchange.setStreams(in, out);
+            inFlight.incrementAndGet();
+            try {
+                handler.handle(exchange);
+            } finally {
+                inFlight.decrementAndGet();
+                long micros = (System.nanoTime() - start) / 1000;
+                String provider = attribute(exchange, ATTR_PROVIDER);
+                String requestedModel = attribute(exchange, ATTR_MODEL);
+                String model = modelLabel(requestedModel);
+                String status = String.valueOf(exchange.getResponseCode());
+                latency("aurora_request_duration_seconds", "接口处理时间",
+                    "endpoint", endpoint, "provider", provider, "model", model).record(micros);
+                counter("aurora_requests_total", "接口请求数（按状态码）",
+                    "endpoint", endpoint, "provider", provider, "model", model, "status", status).increment();
+                requestBytes.record(in.count);
+                responseBytes.record(out.count);
+                EventLog.shared().access(exchange.getRequestMethod(), exchange.getRequestURI().getPath(),
+                    exchange.getResponseCode(), micros, in.count, out.count, provider, requestedModel);
+            }
+        };
+    }
+
+    /**
+     * /metrics 接口
+     */
+    public HttpHandler handler() {
+        return exchange -> {
+            byte[] body = export().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        };
+    }
+
+    /**
+     * 导出 Prometheus 文本格式
+     */
+    public String export() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Family family : new TreeMap<>(families).values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ')
+                .append(family.type.name().toLowerCase(Locale.ROOT)).append('\n');
+            for (Map.Entry<String, Object> series : new TreeMap<>(family.series).entrySet()) {
+                String labels = series.getKey();
+                Object value = series.getValue();
+                if (family.type == Type.HISTOGRAM) {
+                    appendHistogram(out, family, labels, (Histogram) value);
+                } else {
+                    appendSample(out, family.name, labels, null, formatLong(value));
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private void appendHistogram(StringBuilder out, Family family, String labels, Histogram histogram) {
+        for (long bound : family.exportBounds) {
+            // 记录的是整数，"<= 2^k - 1" 与 "< 2^k" 等价
+            appendSample(out, family.name + "_bucket", labels,
+                "le=\"" + formatDouble(bound * family.scale) + "\"",
+                String.valueOf(histogram.countAtOrBelow(bound - 1)));
+        }
+        long count = histogram.getCount();
+        appendSample(out, family.name + "_bucket", labels, "le=\"+Inf\"", String.valueOf(count));
+        appendSample(out, family.name + "_sum", labels, null, formatDouble(histogram.getSum() * family.scale));
+        appendSample(out, family.name + "_count", labels, null, String.valueOf(count));
+    }
+
+    private static void appendSample(StringBuilder out, String name, String labels, String extraLabel, String value) {
+        out.append(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            out.append('{').append(labels);
+            if (extraLabel != null) {
+                if (!labels.isEmpty()) {
+                    out.append(',');
+                }
+                out.append(extraLabel);
+            }
+            out.append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private Family family(String name, String help, Type type, double scale, long[] bounds) {
+        Family family = families.computeIfAbsent(name, n -> new Family(n, help, type, scale, bounds));
+        if (family.type != type) {
+            throw new IllegalArgumentException("指标 " + name + " 已注册为 " + family.type);
+        }
+        return family;
+    }
+
+    private static String labelString(String... labels) {
+        if (labels.length == 0) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return out.toString();
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf('"') < 0 && value.indexOf('\\') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String attribute(HttpExchange exchange, String name) {
+        Object value = exchange.getAttribute(name);
+        return value == null ? "" : value.toString();
+    }
+
+    private static String formatLong(Object value) {
+        if (value instanceof LongAdder) {
+            return String.valueOf(((LongAdder) value).sum());
+        }
+        if (value instanceof AtomicLong) {
+            return String.valueOf(((AtomicLong) value).get());
+        }
+        return String.valueOf(((LongSupplier) value).getAsLong());
+    }
+
+    private static String formatDouble(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return String.valueOf((long) value);
+        }
+        return String.valueOf(value);
+    }
+
+    private static long[] powersOfTwo(int fromExponent, int toExponent) {
+        long[] bounds = new long[toExponent - fromExponent + 1];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = 1L << (fromExponent + i);
+        }
+        return bounds;
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
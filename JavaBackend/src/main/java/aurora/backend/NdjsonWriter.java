@@ -0,0 +1,66 @@
+package aurora.backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * 换行分隔的 JSON（NDJSON）输出，每行一个 JSON 对象
+ *
+ * 和 SseWriter 一样，响应头在第一行写出时才发送，之前抛出的异常仍然可以按普通 JSON 错误返回；
+ * 响应使用分块传输，每行写完立即 flush；客户端接受压缩时整个流压缩，每行 flush 时把已压缩的数据发出。
+ */
+public final class NdjsonWriter implements Closeable {
+
+    private final HttpExchange exchange;
+    private OutputStream out;
+
+    public NdjsonWriter(HttpExchange exchange) {
+        this.exchange = exchange;
+    }
+
+    /**
+     * 是否已经写出响应头
+     */
+    public boolean isStarted() {
+        return out != null;
+    }
+
+    /**
+     * 写出一行
+     */
+    public void write(JSONObject line) throws IOException {
+        start();
+        out.write((line.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private void start() throws IOException {
+        if (out != null) {
+            return;
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/x-ndjson; charset=utf-8");
+        exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+        exchange.getResponseHeaders().add("X-Accel-Buffering", "no");
+        // 长度为 0 表示分块传输
+        out = HttpCompression.startResponse(exchange, 200, 0, HttpCompression.negotiate(exchange), true);
+    }
+
+    @Override
+    public void close() {
+        if (out != null) {
+            try {
+                // 写出压缩流的结尾
+                out.close();
+            } catch (IOException ignored) {
+                // 客户端已断开
+            }
+        }
+        exchange.close();
+    }
+}
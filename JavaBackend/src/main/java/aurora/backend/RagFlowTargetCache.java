@@ -0,0 +1,173 @@
+package aurora.backend;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * RAGFlow 对话地址缓存
+ *
+ * chatRagFlow 每次都要先查 /api/v1/chats（必要时再查 /api/v1/agents）才能拿到真正的 completions 地址。
+ * 这里按 (baseUrl, API Key 摘要) 缓存解析结果：
+ *   - 同一个键的并发首个请求只会触发一次发现调用，其他请求等待同一个结果
+ *   - 超过刷新时间后继续返回旧值，同时在后台重新发现；超过 TTL 后同步重新发现
+ *   - 上游返回 401 / 404 时由调用方 invalidate
+ *   - 条目数量有上限，超出时淘汰最久未使用的条目
+ *
+ * 配置项：
+ *   ragflow.target-cache.ttl         TTL（毫秒），默认 10 分钟
+ *   ragflow.target-cache.refresh     后台刷新时间（毫秒），默认 TTL 的 80%
+ *   ragflow.target-cache.max-entries 最大条目数，默认 256
+ */
+public final class RagFlowTargetCache {
+
+    /**
+     * 真正的发现逻辑
+     */
+    @FunctionalInterface
+    public interface Resolver {
+        String resolve() throws Exception;
+    }
+
+    private static final RagFlowTargetCache SHARED = new RagFlowTargetCache(
+        ServerConfig.getLong("ragflow.target-cache.ttl", 10 * 60_000L),
+        ServerConfig.getLong("ragflow.target-cache.refresh", -1),
+        ServerConfig.getInt("ragflow.target-cache.max-entries", 256));
+
+    private static final class Entry {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        final AtomicBoolean refreshing = new AtomicBoolean();
+        volatile long resolvedAt;
+        volatile long lastAccess = System.currentTimeMillis();
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private final long refreshMillis;
+    private final int maxEntries;
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "aurora-ragflow-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    RagFlowTargetCache(long ttlMillis, long refreshMillis, int maxEntries) {
+        this.ttlMillis = ttlMillis;
+        this.refreshMillis = refreshMillis > 0 ? Math.min(refreshMillis, ttlMillis) : ttlMillis * 4 / 5;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    public static RagFlowTargetCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * 获取对话地址，缓存中没有或已过期时调用 resolver
+     * @param baseUrl 已去掉末尾斜杠的 Base URL
+     * @param apiKey RAGFlow API Key（只使用其摘要作为键）
+     */
+    public String get(String baseUrl, String apiKey, Resolver resolver) throws Exception {
+        String key = cacheKey(baseUrl, apiKey);
+        while (true) {
+            Entry entry = entries.get(key);
+            long now = System.currentTimeMillis();
+            if (entry == null || (entry.future.isDone() && now - entry.resolvedAt > ttlMillis)) {
+                Entry created = new Entry();
+                boolean won = entry == null
+                    ? entries.putIfAbsent(key, created) == null
+                    : entries.replace(key, entry, created);
+                if (!won) {
+                    // 其他线程已经开始发现，回到循环里等待它的结果
+                    continue;
+                }
+                evictIfNeeded();
+                return resolveInto(key, created, resolver);
+            }
+
+            entry.lastAccess = now;
+            if (entry.future.isDone() && now - entry.resolvedAt > refreshMillis
+                    && entry.refreshing.compareAndSet(false, true)) {
+                refreshInBackground(key, entry, resolver);
+            }
+            return await(entry.future);
+        }
+    }
+
+    /**
+     * 让某个 (baseUrl, apiKey) 的缓存失效，下次请求会重新发现
+     */
+    public void invalidate(String baseUrl, String apiKey) {
+        if (entries.remove(cacheKey(baseUrl, apiKey)) != null) {
+            EventLog.info("ragflow.target-invalidated", "baseUrl", baseUrl);
+        }
+    }
+
+    private String resolveInto(String key, Entry entry, Resolver resolver) throws Exception {
+        try {
+            String target = resolver.resolve();
+            entry.resolvedAt = System.currentTimeMillis();
+            entry.future.complete(target);
+            return target;
+        } catch (Exception e) {
+            // 失败的结果不缓存，等待中的请求一起收到异常
+            entries.remove(key, entry);
+            entry.future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private void refreshInBackground(String key, Entry stale, Resolver resolver) {
+        refresher.execute(() -> {
+            Entry fresh = new Entry();
+            try {
+                String target = resolver.resolve();
+                fresh.resolvedAt = System.currentTimeMillis();
+                fresh.future.complete(target);
+                // 期间如果已被 invalidate 或替换，则放弃这次刷新结果
+                entries.replace(key, stale, fresh);
+            } catch (Exception e) {
+                EventLog.warn("ragflow.target-refresh-failed", "error", e.getMessage());
+            } finally {
+                stale.refreshing.set(false);
+            }
+        });
+    }
+
+    private void evictIfNeeded() {
+        while (entries.size() > maxEntries) {
+            String oldestKey = null;
+            long oldestAccess = Long.MAX_VALUE;
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                if (e.getValue().lastAccess < oldestAccess) {
+                    oldestAccess = e.getValue().lastAccess;
+                    oldestKey = e.getKey();
+                }
+            }
+            if (oldestKey == null) {
+                return;
+            }
+            entries.remove(oldestKey);
+        }
+    }
+
+    private static String await(CompletableFuture<String> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException | CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static String cacheKey(String baseUrl, String apiKey) {
+        return baseUrl + "#" + Hashing.keyId(apiKey);
+    }
+}
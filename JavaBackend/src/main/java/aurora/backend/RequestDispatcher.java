@@ -0,0 +1,215 @@
+package aurora.backend;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * 请求分发器 - 把耗时的接口处理从 HttpServer 的调度线程上移走
+ *
+ * 支持的执行模式（配置项 executor.mode）：
+ *   virtual    每个请求一个虚拟线程（需要 JDK 21+，低版本自动改用 pool 模式，getMode() 返回实际模式）
+ *   pool       固定大小的平台线程池 + 有界队列，队列满时立即返回 503
+ *   dispatcher 旧行为，直接在调度线程上处理（仅用于对比测试）
+ *
+ * 长时间占用线程的请求（SSE 流式输出、批量 NDJSON、任务长轮询）通过 wrapLongLived 投递：
+ * pool 模式下它们在单独的线程池上执行，再多的流式连接也不会占满普通请求的线程、让短请求排队或返回 503；
+ * virtual 模式下和普通请求共用虚拟线程。
+ */
+public final class RequestDispatcher {
+
+    public static final String MODE_VIRTUAL = "virtual";
+    public static final String MODE_POOL = "pool";
+    public static final String MODE_DISPATCHER = "dispatcher";
+
+    private final String mode;
+    private final ExecutorService executor;
+    // 长时间占用线程的请求使用的执行器，可以和 executor 是同一个
+    private final ExecutorService longLivedExecutor;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger longLivedInFlight = new AtomicInteger();
+
+    private RequestDispatcher(String mode, ExecutorService executor, ExecutorService longLivedExecutor) {
+        this.mode = mode;
+        this.executor = executor;
+        this.longLivedExecutor = longLivedExecutor;
+    }
+
+    /**
+     * 根据配置创建分发器
+     * executor.mode       执行模式，默认 virtual
+     * executor.pool.size  pool 模式（含 virtual 不可用时）下的线程数，默认 CPU 核数 * 8
+     * executor.queue.size pool 模式（含 virtual 不可用时）下的排队上限，默认 256
+     * executor.stream.pool.size  pool 模式下长时间请求（流式输出、长轮询）的线程数，默认 CPU 核数 * 32
+     * executor.stream.queue.size pool 模式下长时间请求的排队上限，默认 64
+     */
+    public static RequestDispatcher fromConfig() {
+        String mode = ServerConfig.getString("executor.mode", MODE_VIRTUAL).toLowerCase();
+        switch (mode) {
+            case MODE_POOL:
+                return poolFromConfig();
+            case MODE_DISPATCHER:
+                return new RequestDispatcher(MODE_DISPATCHER, null, null);
+            case MODE_VIRTUAL:
+                return virtual();
+            default:
+                EventLog.warn("config.invalid", "key", "executor.mode", "value", mode, "using", MODE_VIRTUAL);
+                return virtual();
+        }
+    }
+
+    /**
+     * 每个请求一个虚拟线程；当前 JDK 不支持时改用按配置创建的有界线程池（模式记为 pool），
+     * 不会退化成无上限的平台线程
+     */
+    public static RequestDispatcher virtual() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService executor = (ExecutorService) factory.invoke(null);
+            return new RequestDispatcher(MODE_VIRTUAL, executor, executor);
+        } catch (ReflectiveOperationException e) {
+            EventLog.warn("executor.virtual-unsupported", "java", Runtime.version().feature(), "using", MODE_POOL);
+            return poolFromConfig();
+        }
+    }
+
+    private static RequestDispatcher poolFromConfig() {
+        int poolSize = ServerConfig.getInt("executor.pool.size", Runtime.getRuntime().availableProcessors() * 8);
+        int queueSize = ServerConfig.getInt("executor.queue.size", 256);
+        int streamPoolSize = ServerConfig.getInt("executor.stream.pool.size",
+            Runtime.getRuntime().availableProcessors() * 32);
+        int streamQueueSize = ServerConfig.getInt("executor.stream.queue.size", 64);
+        return pool(poolSize, queueSize, streamPoolSize, streamQueueSize);
+    }
+
+    /**
+     * 有界平台线程池，长时间请求和普通请求共用
+     * @param poolSize 线程数
+     * @param queueSize 排队上限，超过后直接拒绝
+     */
+    public static RequestDispatcher pool(int poolSize, int queueSize) {
+        ExecutorService executor = boundedPool(poolSize, queueSize, "aurora-request");
+        return new RequestDispatcher(MODE_POOL, executor, executor);
+    }
+
+    /**
+     * 普通请求和长时间请求各用一个有界平台线程池
+     * @param streamPoolSize 长时间请求的线程数
+     * @param streamQueueSize 长时间请求的排队上限，超过后直接拒绝
+     */
+    public static RequestDispatcher pool(int poolSize, int queueSize, int streamPoolSize, int streamQueueSize) {
+        return new RequestDispatcher(MODE_POOL, boundedPool(poolSize, queueSize, "aurora-request"),
+            boundedPool(streamPoolSize, streamQueueSize, "aurora-stream"));
+    }
+
+    private static ExecutorService boundedPool(int poolSize, int queueSize, String threadPrefix) {
+        int threads = Math.max(1, poolSize);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            threads, threads,
+            60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+            namedThreads(threadPrefix),
+            new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 包装接口处理器：调度线程只负责投递，真正的处理在执行器上完成
+     */
+    public HttpHandler wrap(HttpHandler handler) {
+        return wrap(handler, executor, inFlight);
+    }
+
+    /**
+     * 包装长时间占用线程的接口处理器（流式输出、长轮询），pool 模式下在单独的线程池上执行
+     */
+    public HttpHandler wrapLongLived(HttpHandler handler) {
+        return wrap(handler, longLivedExecutor, longLivedInFlight);
+    }
+
+    private static HttpHandler wrap(HttpHandler handler, ExecutorService executor, AtomicInteger inFlight) {
+        if (executor == null) {
+            return handler;
+        }
+        return exchange -> {
+            try {
+                executor.execute(() -> {
+                    inFlight.incrementAndGet();
+                    try {
+                        handler.handle(exchange);
+                    } catch (Throwable t) {
+                        EventLog.error("request.unhandled", t, "path", exchange.getRequestURI().getPath());
+                        exchange.close();
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rejectBusy(exchange);
+            }
+        };
+    }
+
+    /**
+     * 当前正在执行的普通请求数
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * 当前正在执行的长时间请求数（流式输出、长轮询）
+     */
+    public int getLongLivedInFlight() {
+        return longLivedInFlight.get();
+    }
+
+    /**
+     * 实际生效的执行模式（virtual 不可用时为 pool）
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (longLivedExecutor != null && longLivedExecutor != executor) {
+            longLivedExecutor.shutdown();
+        }
+    }
+
+    private static void rejectBusy(HttpExchange exchange) throws IOException {
+        byte[] body = "{\"error\":\"服务繁忙，请稍后重试\",\"success\":false}".getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().add("Retry-After", "1");
+        exchange.sendResponseHeaders(503, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,418 @@
+package aurora.backend;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 上游调用的容错层：期限内重试、对冲请求、熔断
+ *
+ *   - 重试：连接失败、连接被重置、429、5xx 视为暂时性错误，按带抖动的指数退避重试（上游给了 Retry-After 时以它为准），
+ *     所有尝试共享一个总期限，每次尝试的超时不超过剩余时间，退避后会超过期限就不再重试；
+ *     等满读超时仍没有响应的请求计入熔断失败，但不重试（再等一轮大概率还是超时）
+ *   - 对冲：开启后，第一次请求超过该上游近期成功延迟的 p95 仍未返回时，再发一个相同请求，
+ *     先成功的结果生效，另一个被取消（只用于非流式调用）；对冲线程池已满时不对冲
+ *   - 熔断：按 provider + 上游地址（host:port）各一个 CircuitBreaker，熔断期间直接返回 503；
+ *     已配置的上游（upstream.siliconflow.url、routing.ragflow.pools、resilience.targets）常驻并单独导出状态，
+ *     客户端传入的其他 RAGFlow 地址最多保留 resilience.breaker.max-targets 个（LRU），状态合并导出为 target="other"
+ *
+ * 配置项：
+ *   resilience.deadline-ms             单次调用（含重试）的总期限，默认 90000
+ *   resilience.retry.max-attempts      最多尝试次数（含第一次），默认 3
+ *   resilience.retry.base-ms           退避基数，默认 200
+ *   resilience.retry.max-backoff-ms    单次退避上限，默认 2000
+ *   resilience.hedge.enabled           是否开启对冲请求，默认 false
+ *   resilience.hedge.quantile          对冲延迟取近期成功延迟的分位数，默认 0.95
+ *   resilience.hedge.min-delay-ms      对冲延迟下限，默认 50
+ *   resilience.hedge.min-samples       样本数不足时不对冲，默认 20
+ *   resilience.hedge.max-threads       对冲线程池上限（同时进行的对冲调用数），默认 CPU 核数 * 8
+ *   resilience.breaker.failure-threshold 连续失败多少次后熔断，默认 5
+ *   resilience.breaker.open-ms         熔断持续时间，默认 10000
+ *   resilience.breaker.max-targets     未配置的上游最多保留多少个熔断器，默认 1024
+ *   resilience.targets                 其他需要单独导出熔断状态的上游地址（逗号分隔）
+ */
+public final class Resilience {
+
+    /**
+     * 一次上游尝试
+     */
+    @FunctionalInterface
+    public interface Attempt<T> {
+        /**
+         * @param timeout 本次尝试的超时时间（不超过剩余期限）
+         */
+        T call(Duration timeout) throws Exception;
+    }
+
+    private static final long DEADLINE_MS = ServerConfig.getLong("resilience.deadline-ms", 90_000);
+    private static final int MAX_ATTEMPTS = Math.max(1, ServerConfig.getInt("resilience.retry.max-attempts", 3));
+    private static final long RETRY_BASE_MS = ServerConfig.getLong("resilience.retry.base-ms", 200);
+    private static final long RETRY_MAX_BACKOFF_MS = ServerConfig.getLong("resilience.retry.max-backoff-ms", 2000);
+    private static final boolean HEDGE_ENABLED = ServerConfig.getBoolean("resilience.hedge.enabled", false);
+    private static final double HEDGE_QUANTILE = Double.parseDouble(ServerConfig.getString("resilience.hedge.quantile", "0.95"));
+    private static final long HEDGE_MIN_DELAY_MS = ServerConfig.getLong("resilience.hedge.min-delay-ms", 50);
+    private static final int HEDGE_MIN_SAMPLES = ServerConfig.getInt("resilience.hedge.min-samples", 20);
+    private static final int HEDGE_MAX_THREADS = Math.max(2, ServerConfig.getInt("resilience.hedge.max-threads",
+        Runtime.getRuntime().availableProcessors() * 8));
+    private static final int BREAKER_FAILURE_THRESHOLD = ServerConfig.getInt("resilience.breaker.failure-threshold", 5);
+    private static final long BREAKER_OPEN_MS = ServerConfig.getLong("resilience.breaker.open-ms", 10_000);
+    private static final int BREAKER_MAX_TARGETS = Math.max(1, ServerConfig.getInt("resilience.breaker.max-targets", 1024));
+
+    // 每个上游的近期成功延迟窗口满这么多个样本后换新窗口
+    private static final int LATENCY_WINDOW_SIZE = 1024;
+
+    private static final String OTHER_TARGET = "other";
+    private static final Set<String> KNOWN_AUTHORITIES = knownAuthorities();
+    // 已配置的上游，数量固定
+    private static final Map<String, Target> KNOWN_TARGETS = new ConcurrentHashMap<>();
+    // 客户端传入的其他上游，按最近使用淘汰；访问时锁住整个 map
+    private static final Map<String, Target> OTHER_TARGETS = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Target> eldest) {
+            return size() > BREAKER_MAX_TARGETS;
+        }
+    };
+
+    private static final LongAdder RETRIES = new LongAdder();
+    private static final LongAdder HEDGES = new LongAdder();
+    private static final LongAdder HEDGE_WINS = new LongAdder();
+    private static final LongAdder HEDGES_SKIPPED = new LongAdder();
+    private static final LongAdder BREAKER_REJECTIONS = new LongAdder();
+
+    // 不排队：线程用完时提交直接失败，调用方改为不对冲，延迟尖刺时不会再额外堆积阻塞的线程
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    private static final ThreadPoolExecutor HEDGE_EXECUTOR = new ThreadPoolExecutor(0, HEDGE_MAX_THREADS,
+        60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "aurora-hedge-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    static {
+        for (UpstreamClient.Provider provider : UpstreamClient.Provider.values()) {
+            Metrics.shared().gauge("aurora_circuit_state", "熔断器状态（0 正常，1 熔断，2 半开；other 取其中最差的状态）",
+                () -> worstOtherState(provider), "provider", provider.id(), "target", OTHER_TARGET);
+        }
+    }
+
+    private Resilience() {
+    }
+
+    /**
+     * 新的调用期限（System.nanoTime() 时间）；同一次调用换目标重试时沿用同一个期限
+     */
+    public static long newDeadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DEADLINE_MS);
+    }
+
+    /**
+     * 带重试和熔断地执行一次上游调用
+     * @param url 上游地址，按 host:port 区分熔断器和延迟统计
+     * @param hedge 是否允许对冲（还需要开启 resilience.hedge.enabled）；流式调用必须传 false
+     * @param deadline 所有尝试共享的期限，见 newDeadline
+     */
+    public static <T> T call(UpstreamClient.Provider provider, String url, boolean hedge, long deadline,
+            Attempt<T> attempt) throws Exception {
+        Target target = target(provider, url);
+        Duration readTimeout = UpstreamClient.shared().readTimeout(provider);
+        Exception last = null;
+
+        for (int attemptNo = 1; attemptNo <= MAX_ATTEMPTS; attemptNo++) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            try {
+                target.breaker.acquire();
+            } catch (HttpStatusException e) {
+                BREAKER_REJECTIONS.increment();
+                throw e;
+            }
+            Duration timeout = Duration.ofNanos(Math.min(readTimeout.toNanos(), remaining));
+            long start = System.nanoTime();
+            try {
+                T result = hedge && HEDGE_ENABLED
+                    ? callHedged(target, attempt, timeout)
+                    : attempt.call(timeout);
+                target.breaker.onSuccess();
+                target.recordLatency(System.nanoTime() - start);
+                return result;
+            } catch (InterruptedException e) {
+                target.breaker.onIgnored();
+                throw e;
+            } catch (Exception e) {
+                if (!isFailure(e)) {
+                    // 上游正常响应了（例如 400 / 401），熔断器按成功处理
+                    target.breaker.onSuccess();
+                    throw e;
+                }
+                target.breaker.onFailure();
+                if (!isRetryable(e)) {
+                    throw e;
+                }
+                last = e;
+            }
+
+            if (attemptNo == MAX_ATTEMPTS) {
+                break;
+            }
+            long backoff = backoffNanos(attemptNo, last);
+            if (System.nanoTime() + backoff >= deadline) {
+                break;
+            }
+            RETRIES.increment();
+            EventLog.warn("upstream.retry", "attempt", attemptNo, "backoffMs", TimeUnit.NANOSECONDS.toMillis(backoff),
+                "error", last);
+            TimeUnit.NANOSECONDS.sleep(backoff);
+        }
+        if (last == null) {
+            throw new IOException("上游调用超过期限 " + DEADLINE_MS + "ms");
+        }
+        throw last;
+    }
+
+    /**
+     * 先发一个请求，超过对冲延迟仍未返回时再发一个，取先成功的结果，取消另一个
+     */
+    private static <T> T callHedged(Target target, Attempt<T> attempt, Duration timeout) throws Exception {
+        long hedgeDelay = target.hedgeDelayNanos();
+        if (hedgeDelay < 0 || hedgeDelay >= timeout.toNanos()) {
+            return attempt.call(timeout);
+        }
+
+        CompletionService<T> completion = new ExecutorCompletionService<>(HEDGE_EXECUTOR);
+        Future<T> primary;
+        try {
+            primary = completion.submit(() -> attempt.call(timeout));
+        } catch (RejectedExecutionException e) {
+            HEDGES_SKIPPED.increment();
+            return attempt.call(timeout);
+        }
+        Future<T> secondary = null;
+        try {
+            Future<T> first = completion.poll(hedgeDelay, TimeUnit.NANOSECONDS);
+            if (first == null) {
+                Duration hedgeTimeout = timeout.minusNanos(hedgeDelay);
+                try {
+                    secondary = completion.submit(() -> attempt.call(hedgeTimeout));
+                    HEDGES.increment();
+                } catch (RejectedExecutionException e) {
+                    HEDGES_SKIPPED.increment();
+                }
+                first = completion.take();
+            }
+            try {
+                T result = first.get();
+                if (first == secondary) {
+                    HEDGE_WINS.increment();
+                }
+                return result;
+            } catch (ExecutionException e) {
+                if (secondary == null) {
+                    throw unwrap(e);
+                }
+                // 先返回的失败了，等另一个
+                Future<T> other = completion.take();
+                try {
+                    T result = other.get();
+                    if (other == secondary) {
+                        HEDGE_WINS.increment();
+                    }
+                    return result;
+                } catch (ExecutionException ignored) {
+                    throw unwrap(e);
+                }
+            }
+        } finally {
+            primary.cancel(true);
+            if (secondary != null) {
+                secondary.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 上游不健康：连接失败 / 超时 / 连接被重置（IOException）、429、5xx，计入熔断器和路由的错误率
+     */
+    static boolean isFailure(Throwable e) {
+        if (e instanceof UpstreamStatusException) {
+            return ((UpstreamStatusException) e).isRetryable();
+        }
+        return e instanceof IOException;
+    }
+
+    /**
+     * 值得重试的暂时性错误：isFailure 里除去等满读超时的情况（连接超时仍然重试）
+     */
+    static boolean isRetryable(Throwable e) {
+        if (e instanceof HttpTimeoutException && !(e instanceof HttpConnectTimeoutException)) {
+            return false;
+        }
+        return isFailure(e);
+    }
+
+    /**
+     * 带完全抖动的指数退避；上游给了 Retry-After 时直接使用
+     */
+    private static long backoffNanos(int attemptNo, Exception last) {
+        if (last instanceof UpstreamStatusException && ((UpstreamStatusException) last).getRetryAfterSeconds() > 0) {
+            return TimeUnit.SECONDS.toNanos(((UpstreamStatusException) last).getRetryAfterSeconds());
+        }
+        long cap = Math.min(RETRY_MAX_BACKOFF_MS, RETRY_BASE_MS << Math.min(attemptNo - 1, 20));
+        return TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextLong(cap + 1));
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception) {
+            return (Exception) cause;
+        }
+        throw new IllegalStateException(cause);
+    }
+
+    private static Target target(UpstreamClient.Provider provider, String url) {
+        String authority = authority(url);
+        String key = provider.id() + " " + authority;
+        if (KNOWN_AUTHORITIES.contains(authority)) {
+            return KNOWN_TARGETS.computeIfAbsent(key, k -> {
+                Target target = new Target(provider, new CircuitBreaker(k, BREAKER_FAILURE_THRESHOLD, BREAKER_OPEN_MS));
+                Metrics.shared().gauge("aurora_circuit_state", "熔断器状态（0 正常，1 熔断，2 半开；other 取其中最差的状态）",
+                    () -> target.breaker.getState().ordinal(), "provider", provider.id(), "target", authority);
+                return target;
+            });
+        }
+        synchronized (OTHER_TARGETS) {
+            return OTHER_TARGETS.computeIfAbsent(key,
+                k -> new Target(provider, new CircuitBreaker(k, BREAKER_FAILURE_THRESHOLD, BREAKER_OPEN_MS)));
+        }
+    }
+
+    private static String authority(String url) {
+        try {
+            String authority = URI.create(url.trim()).getAuthority();
+            return authority == null ? url.trim() : authority;
+        } catch (IllegalArgumentException e) {
+            return url.trim();
+        }
+    }
+
+    private static Set<String> knownAuthorities() {
+        Set<String> authorities = new HashSet<>();
+        String urls = ServerConfig.getString("upstream.siliconflow.url", "https://api.siliconflow.cn/v1/chat/completions")
+            + "," + ServerConfig.getString("routing.ragflow.pools", "").replace(';', ',')
+            + "," + ServerConfig.getString("resilience.targets", "");
+        for (String url : urls.split(",")) {
+            if (!url.isBlank()) {
+                authorities.add(authority(url));
+            }
+        }
+        return authorities;
+    }
+
+    /**
+     * 未配置的上游里最差的熔断状态：有熔断的为 1，否则有半开的为 2，都正常为 0
+     */
+    private static long worstOtherState(UpstreamClient.Provider provider) {
+        CircuitBreaker.State worst = CircuitBreaker.State.CLOSED;
+        synchronized (OTHER_TARGETS) {
+            for (Target target : OTHER_TARGETS.values()) {
+                if (target.provider != provider) {
+                    continue;
+                }
+                CircuitBreaker.State state = target.breaker.getState();
+                if (state == CircuitBreaker.State.OPEN) {
+                    return state.ordinal();
+                }
+                if (state == CircuitBreaker.State.HALF_OPEN) {
+                    worst = state;
+                }
+            }
+        }
+        return worst.ordinal();
+    }
+
+    public static long getRetries() {
+        return RETRIES.sum();
+    }
+
+    public static long getHedges() {
+        return HEDGES.sum();
+    }
+
+    /**
+     * 对冲线程池已满而没有发出的对冲请求数
+     */
+    public static long getHedgesSkipped() {
+        return HEDGES_SKIPPED.sum();
+    }
+
+    /**
+     * 对冲请求先于第一次请求成功的次数
+     */
+    public static long getHedgeWins() {
+        return HEDGE_WINS.sum();
+    }
+
+    public static long getBreakerRejections() {
+        return BREAKER_REJECTIONS.sum();
+    }
+
+    /**
+     * 一个上游地址的熔断器和近期成功延迟
+     * 延迟窗口写满后换新，分位数优先取上一个完整窗口，避免很久以前的延迟一直影响对冲时机
+     */
+    private static final class Target {
+        final UpstreamClient.Provider provider;
+        final CircuitBreaker breaker;
+        private volatile Histogram current = new Histogram();
+        private volatile Histogram previous;
+
+        Target(UpstreamClient.Provider provider, CircuitBreaker breaker) {
+            this.provider = provider;
+            this.breaker = breaker;
+        }
+
+        void recordLatency(long nanos) {
+            Histogram window = current;
+            window.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+            if (window.getCount() >= LATENCY_WINDOW_SIZE) {
+                synchronized (this) {
+                    if (current == window) {
+                        previous = window;
+                        current = new Histogram();
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return 对冲延迟（纳秒），样本不足时返回 -1
+         */
+        long hedgeDelayNanos() {
+            Histogram window = previous != null ? previous : current;
+            if (window.getCount() < HEDGE_MIN_SAMPLES) {
+                return -1;
+            }
+            long micros = window.quantile(HEDGE_QUANTILE);
+            return Math.max(TimeUnit.MILLISECONDS.toNanos(HEDGE_MIN_DELAY_MS), TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+    }
+}
@@ -0,0 +1,1079 @@
+package aurora.backend;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import org.json.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * 网页总结服务 - 调用硅基流动 API
+ * API Key 由前端传入，无需环境变量
+ */
+public class Server {
+    
+    // SiliconFlow API 端点（压测时可通过 upstream.siliconflow.url 指向本地模拟服务）
+    private static final String SILICONFLOW_API_URL = ServerConfig.getString(
+        "upstream.siliconflow.url", "https://api.siliconflow.cn/v1/chat/completions");
+    
+    // 默认模型
+    private static final String DEFAULT_MODEL = "Qwen/Qwen2.5-7B-Instruct";
+    
+    // 网页总结提示词（修改后旧的总结缓存自动失效）
+    private static final String SUMMARISE_PROMPT = "请总结以下网页内容，提取关键信息，控制在200字以内：\n\n";
+    
+    // 进行中的非流式上游请求，相同请求共享一次调用
+    private static final SingleFlight<String> UPSTREAM_FLIGHTS = new SingleFlight<>();
+    private static final boolean SHARE_FLIGHTS_ACROSS_KEYS = ServerConfig.getBoolean("singleflight.share-across-keys", false);
+    
+    // RAGFlow Chat / Agent 发现请求的超时时间
+    private static final Duration RAGFLOW_DISCOVERY_TIMEOUT = Duration.ofSeconds(5);
+    
+    /**
+     * 总结网页内容
+     * @param pageContent 网页文本内容
+     * @param pageUrl 网页 URL（可选）
+     * @param apiKey API Key
+     * @param model 模型名称
+     * @return 总结结果
+     */
+    public static String summarise(String pageContent, String pageUrl, String apiKey, String model) throws Exception {
+        if (apiKey == null || apiKey.isEmpty()) {
+            throw new Exception("API Key 未提供");
+        }
+        
+        // 同时到达的相同请求只调用一次上游
+        String flightKey = flightKey("summarise", apiKey, model, pageUrl == null ? "" : pageUrl, pageContent);
+        return UPSTREAM_FLIGHTS.execute(flightKey, () -> summariseUpstream(pageContent, pageUrl, apiKey, model));
+    }
+    
+    private static String summariseUpstream(String pageContent, String pageUrl, String apiKey, String model) throws Exception {
+        // 长网页分段并发总结
+        if (LongDocumentSummariser.isLong(pageContent)) {
+            return LongDocumentSummariser.summarise(pageContent, pageUrl, apiKey, model, null, null);
+        }
+        
+        // 构建请求体
+        JSONObject requestBody = buildSiliconFlowRequest(buildSummariseMessages(pageContent, pageUrl), model, false);
+        
+        // 发送 HTTP 请求（复用共享连接）并解析响应
+        String summary = postSiliconFlow(requestBody, apiKey);
+        
+        return summary.trim();
+    }
+    
+    /**
+     * 总结网页内容（流式）
+     * @param listener 每收到一段增量文本回调一次
+     * @return 完整的总结结果
+     */
+    public static String summariseStream(String pageContent, String pageUrl, String apiKey, String model,
+            CompletionStream.DeltaListener listener) throws Exception {
+        return summariseStream(pageContent, pageUrl, apiKey, model, null, listener);
+    }
+    
+    /**
+     * 总结网页内容（流式）
+     * @param progress 长网页分段总结的进度回调，可以为 null
+     * @param listener 每收到一段增量文本回调一次（长网页只有合并阶段是流式的）
+     * @return 完整的总结结果
+     */
+    public static String summariseStream(String pageContent, String pageUrl, String apiKey, String model,
+            LongDocumentSummariser.ProgressListener progress, CompletionStream.DeltaListener listener) throws Exception {
+        if (apiKey == null || apiKey.isEmpty()) {
+            throw new Exception("API Key 未提供");
+        }
+        
+        if (LongDocumentSummariser.isLong(pageContent)) {
+            return LongDocumentSummariser.summarise(pageContent, pageUrl, apiKey, model, progress, listener);
+        }
+        
+        JSONObject requestBody = buildSiliconFlowRequest(buildSummariseMessages(pageContent, pageUrl), model, true);
+        return openSiliconFlowStream(requestBody, apiKey, listener).trim();
+    }
+    
+    /**
+     * 对话服务 - 硅基流动
+     */
+    public static String chatSiliconFlow(JSONArray messages, String apiKey, String model) throws Exception {
+        if (apiKey == null || apiKey.isEmpty()) {
+            throw new Exception("API Key 未提供");
+        }
+        
+        String flightKey = flightKey("chat", apiKey, model, Hashing.canonicalJson(messages));
+        return UPSTREAM_FLIGHTS.execute(flightKey, () -> chatSiliconFlowUpstream(messages, apiKey, model));
+    }
+    
+    private static String chatSiliconFlowUpstream(JSONArray messages, String apiKey, String model) throws Exception {
+        JSONObject requestBody = buildSiliconFlowRequest(messages, model, false);
+        return postSiliconFlow(requestBody, apiKey);
+    }
+    
+    /**
+     * 对话服务 - 硅基流动（流式）
+     */
+    public static String chatSiliconFlowStream(JSONArray messages, String apiKey, String model,
+            CompletionStream.DeltaListener listener) throws Exception {
+        if (apiKey == null || apiKey.isEmpty()) {
+            throw new Exception("API Key 未提供");
+        }
+        
+        return openSiliconFlowStream(buildSiliconFlowRequest(messages, model, true), apiKey, listener);
+    }
+    
+    /**
+     * 构建硅基流动 chat/completions 请求体
+     */
+    static JSONObject buildSiliconFlowRequest(JSONArray messages, String model, boolean stream) {
+        if (model == null || model.isEmpty()) {
+            model = DEFAULT_MODEL;
+        }
+        
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("model", model);
+        requestBody.put("stream", stream);
+        requestBody.put("max_tokens", 1024);
+        requestBody.put("temperature", 0.7);
+        requestBody.put("messages", messages);
+        return requestBody;
+    }
+    
+    /**
+     * 构建网页总结的提示词消息
+     */
+    static JSONArray buildSummariseMessages(String pageContent, String pageUrl) {
+        JSONArray messages = new JSONArray();
+        JSONObject userMessage = new JSONObject();
+        userMessage.put("role", "user");
+        
+        String prompt = SUMMARISE_PROMPT;
+        if (pageUrl != null && !pageUrl.isEmpty()) {
+            prompt += "网址：" + pageUrl + "\n\n";
+        }
+        prompt += "内容：\n" + pageContent;
+        
+        userMessage.put("content", prompt);
+        messages.put(userMessage);
+        return messages;
+    }
+    
+    /**
+     * 相同请求合并的键：接口 + 模型 + 请求内容
+     * 默认只合并同一个 API Key 的请求；开启 singleflight.share-across-keys 后不同用户的相同请求也会合并
+     * （此时等待者会收到发起者 Key 的调用结果，包括失败）
+     */
+    private static String flightKey(String operation, String apiKey, String model, String... parts) {
+        if (model == null || model.isEmpty()) {
+            model = DEFAULT_MODEL;
+        }
+        String[] fields = new String[parts.length + 3];
+        fields[0] = operation;
+        fields[1] = SHARE_FLIGHTS_ACROSS_KEYS ? "" : Hashing.keyId(apiKey);
+        fields[2] = model;
+        System.arraycopy(parts, 0, fields, 3, parts.length);
+        return Hashing.sha256Hex(fields);
+    }
+    
+    /**
+     * 总结缓存的键：提示词模板 + 模型 + 网址 + 正文
+     */
+    static String summaryCacheKey(String pageContent, String pageUrl, String model) {
+        if (model == null || model.isEmpty()) {
+            model = DEFAULT_MODEL;
+        }
+        return SummaryCache.key(SUMMARISE_PROMPT, model, pageUrl, pageContent);
+    }
+    
+    /**
+     * 发送非流式请求到硅基流动，边读响应边取出 choices[0].message.content
+     */
+    private static String postSiliconFlow(JSONObject requestBody, String apiKey) throws Exception {
+        // 模型属于某个路由池时，按延迟在池里选一个等价模型
+        return UpstreamRouter.siliconFlow().call(requestBody.getString("model"), (model, deadline) -> {
+            requestBody.put("model", model);
+            String body = requestBody.toString();
+            // 暂时性失败自动重试，开启对冲后慢请求会再发一份
+            return Resilience.call(UpstreamClient.Provider.SILICONFLOW, SILICONFLOW_API_URL, true, deadline, timeout -> {
+                HttpResponse<InputStream> response = UpstreamClient.shared().postJsonRaw(
+                    UpstreamClient.Provider.SILICONFLOW, model, SILICONFLOW_API_URL, apiKey, body, timeout);
+                
+                try (InputStream in = response.body()) {
+                    int responseCode = response.statusCode();
+                    if (responseCode != 200) {
+                        throw UpstreamStatusException.of(response, "API 请求失败，状态码: " + responseCode);
+                    }
+                    
+                    String content = JsonCodec.extractMessageContent(in);
+                    if (content == null) {
+                        throw new Exception("API 响应中没有回复内容");
+                    }
+                    return content;
+                }
+            });
+        });
+    }
+    
+    /**
+     * 发送 stream=true 的请求到硅基流动，并把增量内容转发给 listener
+     */
+    private static String openSiliconFlowStream(JSONObject requestBody, String apiKey,
+            CompletionStream.DeltaListener listener) throws Exception {
+        // 路由只看拿到响应头之前的延迟和失败，开始转发增量后不再换模型
+        HttpResponse<InputStream> response = UpstreamRouter.siliconFlow().call(requestBody.getString("model"), (model, deadline) -> {
+            requestBody.put("model", model);
+            String body = requestBody.toString();
+            // 只在拿到响应头之前重试，开始转发增量后不再重试
+            return Resilience.call(UpstreamClient.Provider.SILICONFLOW, SILICONFLOW_API_URL, false, deadline, timeout -> {
+                HttpResponse<InputStream> attempt = UpstreamClient.shared().postJsonStream(
+                    UpstreamClient.Provider.SILICONFLOW, model, SILICONFLOW_API_URL, apiKey, body, timeout);
+                int responseCode = attempt.statusCode();
+                if (responseCode != 200) {
+                    attempt.body().close();
+                    throw UpstreamStatusException.of(attempt, "API 请求失败，状态码: " + responseCode);
+                }
+                return attempt;
+            });
+        });
+        return CompletionStream.relay(response.body(), listener);
+    }
+
+    /**
+     * 对话服务 - RAGFlow
+     */
+    public static String chatRagFlow(JSONArray messages, String apiKey, String baseUrl) throws Exception {
+        // 构造请求体
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("stream", false);
+        requestBody.put("messages", messages);
+        requestBody.put("model", "ragflow"); 
+
+        String body = requestBody.toString();
+        // Base URL 属于某个路由池时，按延迟在池里选一个 RAGFlow 实例
+        JSONObject response = UpstreamRouter.ragFlow().call(baseUrl, (instance, deadline) -> {
+            String targetUrl = resolveRagFlowTarget(apiKey, instance);
+            return Resilience.call(UpstreamClient.Provider.RAGFLOW, targetUrl, true, deadline, timeout -> {
+                HttpResponse<InputStream> attempt = UpstreamClient.shared().postJsonRaw(
+                    UpstreamClient.Provider.RAGFLOW, "ragflow", targetUrl, apiKey, body, timeout);
+                
+                int responseCode = attempt.statusCode();
+                invalidateRagFlowTarget(apiKey, instance, responseCode);
+                
+                // 如果 404，尝试原生接口路径 (示例，具体需根据 RAGFlow 版本调整)
+                if (responseCode == 404) {
+                     attempt.body().close();
+                     throw new Exception("RAGFlow 接口路径未找到，请检查 Base URL 是否正确 (例如: http://localhost:9380)");
+                }
+                
+                if (responseCode != 200) {
+                    // 读取错误信息（只取开头部分）
+                    String error = JsonCodec.readPrefix(attempt.body(), 2000);
+                    throw UpstreamStatusException.of(attempt, "RAGFlow 请求失败: " + responseCode + " " + error);
+                }
+                // 边解压边解析，不先把响应体读成字符串
+                return JsonCodec.readObject(attempt.body());
+            });
+        });
+        
+        // 原始响应只在 DEBUG 级别记录（截断、脱敏在后台线程完成）
+        EventLog.debug("ragflow.response", "status", 200, "body", response);
+        
+        return parseRagFlowResponse(response);
+    }
+    
+    /**
+     * 解析 RAGFlow 的非流式响应，兼容 OpenAI 格式和 RAGFlow 原生格式
+     */
+    static String parseRagFlowResponse(String body) {
+        return parseRagFlowResponse(new JSONObject(body));
+    }
+    
+    static String parseRagFlowResponse(JSONObject jsonResponse) {
+        // 解析 OpenAI 兼容格式
+        if (jsonResponse.has("choices") && !jsonResponse.isNull("choices")) {
+            return jsonResponse
+                .getJSONArray("choices")
+                .getJSONObject(0)
+                .getJSONObject("message")
+                .getString("content");
+        } else if (jsonResponse.has("data") && !jsonResponse.isNull("data")) {
+             Object dataObj = jsonResponse.get("data");
+             if (dataObj instanceof JSONObject) {
+                 JSONObject dataJson = (JSONObject) dataObj;
+                 // RAGFlow 原生格式通常包含 answer
+                 if (dataJson.has("answer")) {
+                     return dataJson.getString("answer");
+                 } else if (dataJson.has("content")) {
+                     return dataJson.getString("content");
+                 } else {
+                     return dataJson.toString();
+                 }
+             } else if (dataObj instanceof String) {
+                 return (String) dataObj;
+             } else {
+                 return String.valueOf(dataObj);
+             }
+        } else if (jsonResponse.has("answer")) {
+            // 某些直接返回 answer 的情况
+            return jsonResponse.getString("answer");
+        } else {
+            return jsonResponse.toString();
+        }
+    }
+    
+    /**
+     * 对话服务 - RAGFlow（流式）
+     */
+    public static String chatRagFlowStream(JSONArray messages, String apiKey, String baseUrl,
+            CompletionStream.DeltaListener listener) throws Exception {
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("stream", true);
+        requestBody.put("messages", messages);
+        requestBody.put("model", "ragflow");
+
+        String body = requestBody.toString();
+        HttpResponse<InputStream> response = UpstreamRouter.ragFlow().call(baseUrl, (instance, deadline) -> {
+            String targetUrl = resolveRagFlowTarget(apiKey, instance);
+            return Resilience.call(UpstreamClient.Provider.RAGFLOW, targetUrl, false, deadline, timeout -> {
+                HttpResponse<InputStream> attempt = UpstreamClient.shared().postJsonStream(
+                    UpstreamClient.Provider.RAGFLOW, "ragflow", targetUrl, apiKey, body, timeout);
+                
+                int responseCode = attempt.statusCode();
+                invalidateRagFlowTarget(apiKey, instance, responseCode);
+                if (responseCode == 404) {
+                    attempt.body().close();
+                    throw new Exception("RAGFlow 接口路径未找到，请检查 Base URL 是否正确 (例如: http://localhost:9380)");
+                }
+                if (responseCode != 200) {
+                    String error;
+                    try (InputStream errorStream = attempt.body()) {
+                        error = new String(errorStream.readAllBytes(), StandardCharsets.UTF_8);
+                    }
+                    throw UpstreamStatusException.of(attempt, "RAGFlow 请求失败: " + responseCode + " " + error);
+                }
+                return attempt;
+            });
+        });
+        return CompletionStream.relay(response.body(), listener);
+    }
+    
+    /**
+     * 解析 RAGFlow 的对话地址（带缓存）
+     * @return OpenAI 兼容的 chat/completions 完整地址
+     */
+    private static String resolveRagFlowTarget(String apiKey, String baseUrl) throws Exception {
+        if (apiKey == null || apiKey.isEmpty()) {
+            throw new Exception("RAGFlow API Key 未提供");
+        }
+        if (baseUrl == null || baseUrl.isEmpty()) {
+            throw new Exception("RAGFlow Base URL 未提供");
+        }
+
+        String normalizedBaseUrl = normalizeRagFlowBaseUrl(baseUrl);
+        return RagFlowTargetCache.shared().get(normalizedBaseUrl, apiKey,
+            () -> discoverRagFlowTarget(apiKey, normalizedBaseUrl));
+    }
+    
+    /**
+     * 上游返回 401 / 404 时丢弃缓存的对话地址，下次重新发现
+     */
+    private static void invalidateRagFlowTarget(String apiKey, String baseUrl, int responseCode) {
+        if (responseCode == 401 || responseCode == 404) {
+            RagFlowTargetCache.shared().invalidate(normalizeRagFlowBaseUrl(baseUrl), apiKey);
+        }
+    }
+    
+    private static String normalizeRagFlowBaseUrl(String baseUrl) {
+        // 移除末尾斜杠
+        if (baseUrl.endsWith("/")) {
+            baseUrl = baseUrl.substring(0, baseUrl.length() - 1);
+        }
+        return baseUrl;
+    }
+    
+    /**
+     * 发现 RAGFlow 的对话地址：优先使用第一个 Chat，其次第一个 Agent，最后退回默认路径
+     */
+    private static String discoverRagFlowTarget(String apiKey, String baseUrl) {
+        String targetUrl = null;
+        String chatId = null;
+        String agentId = null;
+
+        // 1. 尝试获取 Chat ID
+        try {
+            chatId = fetchFirstRagFlowId(baseUrl + "/api/v1/chats?page=1&page_size=1", apiKey);
+            if (chatId != null) {
+                EventLog.debug("ragflow.chat-found", "baseUrl", baseUrl, "chatId", chatId);
+            }
+        } catch (Exception e) {
+            EventLog.warn("ragflow.chats-failed", "baseUrl", baseUrl, "error", e.getMessage());
+        }
+
+        if (chatId != null) {
+            targetUrl = baseUrl + "/api/v1/chats_openai/" + chatId + "/chat/completions";
+        } else {
+            // 2. 尝试获取 Agent ID
+            try {
+                agentId = fetchFirstRagFlowId(baseUrl + "/api/v1/agents?page=1&page_size=1", apiKey);
+                if (agentId != null) {
+                    EventLog.debug("ragflow.agent-found", "baseUrl", baseUrl, "agentId", agentId);
+                }
+            } catch (Exception e) {
+                EventLog.warn("ragflow.agents-failed", "baseUrl", baseUrl, "error", e.getMessage());
+            }
+            
+            if (agentId != null) {
+                targetUrl = baseUrl + "/api/v1/agents_openai/" + agentId + "/chat/completions";
+            } else {
+                // 3. 最后的尝试，使用默认路径 (可能会 404)
+                targetUrl = baseUrl + "/api/v1/chat/completions";
+            }
+        }
+
+        EventLog.info("ragflow.target", "baseUrl", baseUrl, "url", targetUrl, "chatId", chatId, "agentId", agentId);
+        return targetUrl;
+    }
+    
+    /**
+     * 读取 RAGFlow 列表接口（chats / agents）返回的第一个 ID，没有时返回 null
+     */
+    private static String fetchFirstRagFlowId(String listUrl, String apiKey) throws Exception {
+        HttpResponse<InputStream> response = UpstreamClient.shared().get(
+            UpstreamClient.Provider.RAGFLOW, listUrl, apiKey, RAGFLOW_DISCOVERY_TIMEOUT);
+        if (response.statusCode() != 200) {
+            response.body().close();
+            return null;
+        }
+        JSONObject json = JsonCodec.readObject(response.body());
+        if (json.has("data") && !json.isNull("data")) {
+            JSONArray data = json.getJSONArray("data");
+            if (data.length() > 0) {
+                return data.getJSONObject(0).getString("id");
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 相同请求合并的统计（执行次数 / 节省次数）
+     */
+    public static SingleFlight<String> upstreamFlights() {
+        return UPSTREAM_FLIGHTS;
+    }
+    
+    /**
+     * 对话服务入口
+     */
+    public static String chat(JSONArray messages, String apiKey, String model) throws Exception {
+        return chatSiliconFlow(messages, apiKey, model);
+    }
+    
+    /**
+     * 为一次上游调用申请准入许可（按提供商和对应的 API Key）
+     * @throws HttpStatusException 429，被限速或并发已满
+     */
+    private static AdmissionController.Permit admit(String provider, String apiKey, String ragflowApiKey) throws Exception {
+        if ("ragflow".equals(provider)) {
+            return AdmissionController.shared().acquire(UpstreamClient.Provider.RAGFLOW, ragflowApiKey);
+        }
+        return AdmissionController.shared().acquire(UpstreamClient.Provider.SILICONFLOW, apiKey);
+    }
+    
+    /**
+     * 读取 Authorization: Bearer 头里的 Token，没有时返回空字符串
+     */
+    private static String bearerToken(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return "";
+        }
+        return authorization.substring(7).trim();
+    }
+    
+    /**
+     * 读取查询参数里的整数，没有或不合法时返回默认值
+     */
+    private static long queryLong(HttpExchange exchange, String name, long defaultValue) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return defaultValue;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                try {
+                    return Long.parseLong(pair.substring(eq + 1));
+                } catch (NumberFormatException e) {
+                    return defaultValue;
+                }
+            }
+        }
+        return defaultValue;
+    }
+    
+    /**
+     * 是否以 SSE 方式返回：路径以 /stream 结尾，或请求体里带 stream=true
+     */
+    private static boolean isStreamRequest(HttpExchange exchange, JSONObject request) {
+        return exchange.getRequestURI().getPath().endsWith("/stream") || request.optBoolean("stream", false);
+    }
+    
+    /**
+     * 会话模式的对话：请求只带 sessionId（首轮省略）和 message，历史由服务端保存，
+     * 调用前由 ContextCompactor 压缩到 token 预算内；响应（或 done 事件）里额外返回 sessionId
+     */
+    private static void chatInSession(HttpExchange exchange, JSONObject request, String provider, String apiKey,
+            String model, String ragflowApiKey, String ragflowBaseUrl) throws Exception {
+        JSONObject userMessage = ChatSessionStore.userMessage(request.opt("message"));
+        boolean ragflow = "ragflow".equals(provider);
+        ChatSessionStore.Session session = ChatSessionStore.shared().open(
+            request.optString("sessionId", ""), ragflow ? ragflowApiKey : apiKey);
+        
+        session.lock();
+        try {
+            // 滚动摘要走硅基流动，没有硅基流动 Key 时只截断
+            ContextCompactor.Summariser summariser = apiKey.isEmpty()
+                ? null
+                : summaryMessages -> chatSiliconFlow(summaryMessages, apiKey, model);
+            ContextCompactor.Context context = ContextCompactor.build(session, userMessage, summariser);
+            JSONArray messages = context.getMessages();
+            
+            if (isStreamRequest(exchange, request)) {
+                String reply = streamChat(exchange, messages, provider, apiKey, model, ragflowApiKey, ragflowBaseUrl,
+                    session.getId());
+                if (reply != null) {
+                    session.append(context, userMessage, reply);
+                }
+                return;
+            }
+            
+            String reply = ragflow
+                ? chatRagFlow(messages, ragflowApiKey, ragflowBaseUrl)
+                : chatSiliconFlow(messages, apiKey, model);
+            session.append(context, userMessage, reply);
+            
+            JSONObject result = new JSONObject();
+            result.put("reply", reply);
+            result.put("sessionId", session.getId());
+            result.put("success", true);
+            JsonCodec.sendJson(exchange, 200, result);
+        } finally {
+            session.unlock();
+        }
+    }
+    
+    /**
+     * 以 SSE 方式返回对话结果
+     * 每段增量文本发送一条 {"delta": "..."}，结束时发送 done 事件 {"reply": "...", "success": true}
+     * @param sessionId 会话模式下放进 done 事件，否则为 null
+     * @return 完整回复；已经开始输出后失败时返回 null
+     */
+    private static String streamChat(HttpExchange exchange, JSONArray messages, String provider, String apiKey,
+            String model, String ragflowApiKey, String ragflowBaseUrl, String sessionId) throws Exception {
+        SseWriter sse = new SseWriter(exchange);
+        try {
+            CompletionStream.DeltaListener listener = text -> sendDelta(sse, text);
+            String reply;
+            if ("ragflow".equals(provider)) {
+                reply = chatRagFlowStream(messages, ragflowApiKey, ragflowBaseUrl, listener);
+            } else {
+                reply = chatSiliconFlowStream(messages, apiKey, model, listener);
+            }
+            
+            JSONObject result = new JSONObject();
+            result.put("reply", reply);
+            if (sessionId != null) {
+                result.put("sessionId", sessionId);
+            }
+            result.put("success", true);
+            sse.send("done", result.toString());
+            sse.close();
+            return reply;
+        } catch (Exception e) {
+            failStream(sse, e);
+            return null;
+        }
+    }
+    
+    /**
+     * 以 SSE 方式返回总结结果，事件格式同 streamChat，done 事件中的字段为 summary
+     * 长网页在合并阶段开始前会先发送若干 progress 事件
+     * @param prepared 经过 ContentPipeline 预处理的正文
+     */
+    private static void streamSummary(HttpExchange exchange, ContentPipeline.Result prepared, String url,
+            String apiKey, String model) throws Exception {
+        SseWriter sse = new SseWriter(exchange);
+        String content = prepared.getContent();
+        try {
+            // 命中缓存时把完整总结作为一段增量直接发出
+            String cacheKey = summaryCacheKey(content, url, model);
+            String summary = apiKey.isEmpty() ? null : SummaryCache.shared().get(cacheKey);
+            boolean cached = summary != null;
+            if (cached) {
+                sendDelta(sse, summary);
+            } else {
+                AdmissionController.Permit permit = admit("siliconflow", apiKey, null);
+                try (permit) {
+                    summary = summariseStream(content, url, apiKey, model,
+                        (completed, total) -> sendProgress(sse, completed, total),
+                        text -> sendDelta(sse, text));
+                }
+                SummaryCache.shared().put(cacheKey, summary);
+            }
+            
+            JSONObject result = new JSONObject();
+            result.put("summary", summary);
+            result.put("cached", cached);
+            result.put("stats", prepared.toJson());
+            result.put("success", true);
+            sse.send("done", result.toString());
+            sse.close();
+        } catch (Exception e) {
+            failStream(sse, e);
+        }
+    }
+    
+    /**
+     * 以 NDJSON 返回批量总结结果：每篇网页一行（见 BatchSummariser.summarise），
+     * 最后一行为 {"done": true, "total": 总篇数, "succeeded": 成功篇数, "failed": 失败篇数}
+     */
+    private static void streamBatch(HttpExchange exchange, List<BatchSummariser.Item> items, String apiKey,
+            String model, int parallelism) throws Exception {
+        NdjsonWriter out = new NdjsonWriter(exchange);
+        try {
+            int succeeded = BatchSummariser.summarise(items, apiKey, model, parallelism, out::write);
+            
+            JSONObject done = new JSONObject();
+            done.put("done", true);
+            done.put("total", items.size());
+            done.put("succeeded", succeeded);
+            done.put("failed", items.size() - succeeded);
+            out.write(done);
+        } catch (IOException e) {
+            // 客户端已断开，未完成的网页已取消
+            EventLog.info("batch.aborted", "items", items.size(), "error", e.getMessage());
+        } finally {
+            out.close();
+        }
+    }
+    
+    /**
+     * 流式增量文本：{"delta": 文本}
+     */
+    private static void sendDelta(SseWriter sse, String text) throws IOException {
+        JSONObject delta = new JSONObject();
+        delta.put("delta", text);
+        sse.send(null, delta.toString());
+    }
+    
+    /**
+     * 长网页分段进度：{"completed": 已完成分段数, "total": 分段总数}
+     */
+    private static void sendProgress(SseWriter sse, int completed, int total) throws IOException {
+        JSONObject progress = new JSONObject();
+        progress.put("completed", completed);
+        progress.put("total", total);
+        sse.send("progress", progress.toString());
+    }
+    
+    /**
+     * 流式响应出错：还没开始输出时交给外层按普通 JSON 错误返回，否则发送 error 事件后结束
+     */
+    private static void failStream(SseWriter sse, Exception e) throws Exception {
+        if (!sse.isStarted()) {
+            throw e;
+        }
+        EventLog.error("stream.failed", e);
+        JSONObject error = new JSONObject();
+        error.put("error", e.getMessage());
+        error.put("success", false);
+        try {
+            sse.send("error", error.toString());
+        } catch (IOException ignored) {
+            // 客户端已断开
+        }
+        sse.close();
+    }
+    
+    /**
+     * 返回错误响应：HttpStatusException 使用其状态码，其余异常按 500 处理
+     */
+    private static void sendFailure(HttpExchange exchange, Exception e) throws IOException {
+        int status = 500;
+        if (e instanceof HttpStatusException) {
+            HttpStatusException statusException = (HttpStatusException) e;
+            status = statusException.getStatus();
+            if (statusException.getRetryAfterSeconds() > 0) {
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(statusException.getRetryAfterSeconds()));
+            }
+        } else {
+            EventLog.error("request.failed", e, "path", exchange.getRequestURI().getPath());
+        }
+        JsonCodec.sendError(exchange, status, e.getMessage());
+    }
+    
+    /**
+     * 把各组件自己维护的统计挂到 /metrics 上
+     */
+    private static void registerComponentMetrics(Metrics metrics, RequestDispatcher dispatcher) {
+        metrics.gauge("aurora_executor_in_flight", "执行器上正在运行的请求数", dispatcher::getInFlight,
+            "mode", dispatcher.getMode());
+        metrics.gauge("aurora_executor_long_lived_in_flight", "正在运行的流式输出和长轮询请求数",
+            dispatcher::getLongLivedInFlight, "mode", dispatcher.getMode());
+        // 虚拟线程不计入，压测时用来对比在途请求数和实际占用的平台线程数
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        metrics.gauge("aurora_jvm_platform_threads", "JVM 存活的平台线程数（不含虚拟线程）", threads::getThreadCount);
+        metrics.gauge("aurora_jvm_platform_threads_peak", "JVM 平台线程数峰值", threads::getPeakThreadCount);
+        
+        SummaryCache cache = SummaryCache.shared();
+        metrics.counter("aurora_summary_cache_hits_total", "总结缓存命中次数", cache::getHits);
+        metrics.counter("aurora_summary_cache_misses_total", "总结缓存未命中次数", cache::getMisses);
+        metrics.counter("aurora_summary_cache_evictions_total", "总结缓存淘汰次数", cache::getEvictions);
+        metrics.gauge("aurora_summary_cache_entries", "总结缓存条目数", cache::size);
+        metrics.gauge("aurora_summary_cache_bytes", "总结缓存估算占用字节数", cache::sizeInBytes);
+        
+        metrics.counter("aurora_singleflight_executed_total", "实际发往上游的非流式调用数", UPSTREAM_FLIGHTS::getExecuted);
+        metrics.counter("aurora_singleflight_shared_total", "合并相同请求节省的上游调用数", UPSTREAM_FLIGHTS::getShared);
+        
+        ContentPipeline pipeline = ContentPipeline.shared();
+        metrics.counter("aurora_summary_content_tokens_total", "总结正文估算 token 数", pipeline::getOriginalTokens,
+            "stage", "original");
+        metrics.counter("aurora_summary_content_tokens_total", "总结正文估算 token 数", pipeline::getReducedTokens,
+            "stage", "reduced");
+        
+        metrics.counter("aurora_http_compression_total", "压缩 / 解压的消息数", HttpCompression::getDecodedRequests,
+            "direction", "request");
+        metrics.counter("aurora_http_compression_total", "压缩 / 解压的消息数", HttpCompression::getCompressedResponses,
+            "direction", "response");
+        metrics.counter("aurora_http_compression_total", "压缩 / 解压的消息数",
+            HttpCompression::getCompressedUpstreamRequests, "direction", "upstream_request");
+        metrics.counter("aurora_http_compression_total", "压缩 / 解压的消息数",
+            HttpCompression::getDecodedUpstreamResponses, "direction", "upstream_response");
+        
+        for (UpstreamRouter router : List.of(UpstreamRouter.siliconFlow(), UpstreamRouter.ragFlow())) {
+            String provider = router.getProvider().id();
+            metrics.counter("aurora_route_failovers_total", "选中的目标失败后换目标的次数", router::getFailovers,
+                "provider", provider);
+            for (UpstreamRouter.Target target : router.targets()) {
+                String[] labels = {"provider", provider, "pool", target.getPool(), "target", target.getName()};
+                metrics.counter("aurora_route_decisions_total", "路由选中各目标的次数", target::getPicks, labels);
+                metrics.gauge("aurora_route_latency_ewma_ms", "各目标成功延迟的 EWMA（毫秒）", target::getLatencyMillis,
+                    labels);
+                metrics.gauge("aurora_route_error_rate_permille", "各目标错误率的 EWMA（千分比）", target::getErrorPermille,
+                    labels);
+                metrics.gauge("aurora_route_in_flight", "各目标进行中的调用数", target::getInFlight, labels);
+            }
+        }
+        
+        EventLog log = EventLog.shared();
+        metrics.counter("aurora_log_records_total", "日志条数", log::getWritten, "result", "written");
+        metrics.counter("aurora_log_records_total", "日志条数", log::getDropped, "result", "dropped");
+        metrics.counter("aurora_log_records_total", "日志条数", log::getSampledOut, "result", "sampled_out");
+        metrics.counter("aurora_log_write_errors_total", "日志写出失败次数", log::getWriteErrors);
+        metrics.gauge("aurora_log_buffer_depth", "日志缓冲区中等待写出的条数", log::getBufferDepth);
+        
+        SummaryJobs jobs = SummaryJobs.shared();
+        metrics.counter("aurora_jobs_total", "异步总结任务数", jobs::getSubmitted, "state", "submitted");
+        metrics.counter("aurora_jobs_total", "异步总结任务数", jobs::getCompleted, "state", "done");
+        metrics.counter("aurora_jobs_total", "异步总结任务数", jobs::getFailed, "state", "failed");
+        metrics.counter("aurora_jobs_rejected_total", "同一 API Key 未结束任务过多而拒绝的提交数", jobs::getRejectedPerKey);
+        metrics.counter("aurora_jobs_polls_not_waited_total", "长轮询名额已满、直接返回的查询数", jobs::getPollsNotWaited);
+        metrics.gauge("aurora_jobs_queued", "等待执行的异步任务数", jobs::getQueueDepth);
+        metrics.gauge("aurora_jobs_running", "正在执行的异步任务数", jobs::getActive);
+        metrics.gauge("aurora_job_log_entries", "任务日志中保留的任务数", jobs.getLog()::size);
+        metrics.gauge("aurora_job_log_bytes", "任务日志已使用的字节数", jobs.getLog()::sizeInBytes);
+        metrics.counter("aurora_job_log_compactions_total", "任务日志压缩次数", jobs.getLog()::getCompactions);
+        
+        ChatSessionStore sessions = ChatSessionStore.shared();
+        metrics.gauge("aurora_chat_sessions", "服务端保存的对话会话数", sessions::size);
+        metrics.counter("aurora_chat_sessions_created_total", "新建的对话会话数", sessions::getCreated);
+        metrics.counter("aurora_chat_sessions_removed_total", "清理的对话会话数", sessions::getExpired, "reason", "expired");
+        metrics.counter("aurora_chat_sessions_removed_total", "清理的对话会话数", sessions::getEvicted, "reason", "evicted");
+        
+        AdmissionController admission = AdmissionController.shared();
+        metrics.counter("aurora_upstream_retries_total", "上游调用重试次数", Resilience::getRetries);
+        metrics.counter("aurora_upstream_hedges_total", "发出的对冲请求数", Resilience::getHedges);
+        metrics.counter("aurora_upstream_hedges_skipped_total", "对冲线程池已满而没有发出的对冲请求数",
+            Resilience::getHedgesSkipped);
+        metrics.counter("aurora_upstream_hedge_wins_total", "对冲请求先于第一次请求成功的次数", Resilience::getHedgeWins);
+        metrics.counter("aurora_circuit_rejections_total", "熔断期间直接拒绝的调用数", Resilience::getBreakerRejections);
+        
+        metrics.counter("aurora_admission_admitted_total", "准入控制放行的请求数", admission::getAdmitted);
+        metrics.counter("aurora_admission_rejected_total", "准入控制拒绝的请求数", admission::getRejectedRate, "reason", "rate");
+        metrics.counter("aurora_admission_rejected_total", "准入控制拒绝的请求数", admission::getRejectedConcurrency,
+            "reason", "concurrency");
+        metrics.counter("aurora_admission_rejected_total", "准入控制拒绝的请求数", admission::getRejectedKeys,
+            "reason", "max-keys");
+        metrics.counter("aurora_admission_queued_total", "进入等待队列的请求数", admission::getQueued);
+        metrics.gauge("aurora_admission_tracked_keys", "准入控制保留状态的 API Key 数", admission::getTrackedKeys);
+        for (UpstreamClient.Provider provider : UpstreamClient.Provider.values()) {
+            metrics.gauge("aurora_admission_in_flight", "已放行且尚未结束的上游调用数", () -> admission.getInFlight(provider),
+                "provider", provider.id());
+        }
+    }
+    
+    /**
+     * HTTP 服务器入口（供 React Native 调用）
+     * 启动命令: ./run_server.sh（或 java -cp build/classes:json-20240303.jar aurora.backend.Server 8080）
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        
+        com.sun.net.httpserver.HttpServer server = 
+            com.sun.net.httpserver.HttpServer.create(new InetSocketAddress(port), 0);
+        
+        // 接口处理放到独立执行器上，避免一个慢请求阻塞调度线程
+        RequestDispatcher dispatcher = RequestDispatcher.fromConfig();
+        Metrics metrics = Metrics.shared();
+            
+        // 聊天接口（/chat/stream 或 stream=true 时以 SSE 返回）
+        HttpHandler chatHandler = exchange -> {
+            try {
+                // 设置 CORS
+                exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+                exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "POST, OPTIONS");
+                exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type, Content-Encoding");
+                
+                if ("OPTIONS".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    JsonCodec.sendError(exchange, 405, "仅支持 POST 请求");
+                    return;
+                }
+                
+                // 读取请求体（超过大小限制时返回 413）
+                JSONObject request = JsonCodec.readRequest(exchange);
+                String apiKey = request.optString("apiKey", "");
+                String model = request.optString("model", "Qwen/Qwen2.5-7B-Instruct");
+                String provider = request.optString("provider", "siliconflow");
+                String ragflowApiKey = request.optString("ragflowApiKey", "");
+                String ragflowBaseUrl = request.optString("ragflowBaseUrl", "");
+                exchange.setAttribute(Metrics.ATTR_PROVIDER, "ragflow".equals(provider) ? "ragflow" : "siliconflow");
+                exchange.setAttribute(Metrics.ATTR_MODEL, "ragflow".equals(provider) ? "ragflow" : model);
+                
+                // 准入控制：超出该 Key / 提供商的速率或并发限制时直接返回 429
+                AdmissionController.Permit permit = admit(provider, apiKey, ragflowApiKey);
+                try (permit) {
+                    // 会话模式：只带 sessionId 和新消息
+                    if (request.has("message")) {
+                        chatInSession(exchange, request, provider, apiKey, model, ragflowApiKey, ragflowBaseUrl);
+                        return;
+                    }
+                    
+                    JSONArray messages = request.getJSONArray("messages");
+                    if (isStreamRequest(exchange, request)) {
+                        streamChat(exchange, messages, provider, apiKey, model, ragflowApiKey, ragflowBaseUrl, null);
+                        return;
+                    }
+                    
+                    // 调用对话服务
+                    String reply;
+                    if ("ragflow".equals(provider)) {
+                        reply = chatRagFlow(messages, ragflowApiKey, ragflowBaseUrl);
+                    } else {
+                        reply = chatSiliconFlow(messages, apiKey, model);
+                    }
+                    
+                    // 返回结果
+                    JSONObject result = new JSONObject();
+                    result.put("reply", reply);
+                    result.put("success", true);
+                    JsonCodec.sendJson(exchange, 200, result);
+                }
+                
+            } catch (Exception e) {
+                sendFailure(exchange, e);
+            }
+        };
+        // 流式路径走长时间请求的线程池；/chat 和 /summarise 带 stream=true 时仍在普通线程池上执行
+        server.createContext("/chat", dispatcher.wrap(metrics.instrument("/chat", chatHandler)));
+        server.createContext("/chat/stream", dispatcher.wrapLongLived(metrics.instrument("/chat/stream", chatHandler)));
+        
+        // 总结接口（/summarise/stream 或 stream=true 时以 SSE 返回）
+        HttpHandler summariseHandler = exchange -> {
+            try {
+                // 设置 CORS
+                exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+                exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "POST, OPTIONS");
+                exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type, Content-Encoding");
+                
+                if ("OPTIONS".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    JsonCodec.sendError(exchange, 405, "仅支持 POST 请求");
+                    return;
+                }
+                
+                // 读取请求体（超过大小限制时返回 413）
+                JSONObject request = JsonCodec.readRequest(exchange);
+                String url = request.optString("url", "");
+                String apiKey = request.getString("apiKey");
+                String model = request.optString("model", "Qwen/Qwen2.5-7B-Instruct");
+                exchange.setAttribute(Metrics.ATTR_PROVIDER, "siliconflow");
+                exchange.setAttribute(Metrics.ATTR_MODEL, model);
+                
+                // 先去掉 HTML、样板内容和重复段落，缓存键也按处理后的正文计算
+                ContentPipeline.Result prepared = ContentPipeline.shared().process(request.getString("content"));
+                String content = prepared.getContent();
+                
+                if (isStreamRequest(exchange, request)) {
+                    streamSummary(exchange, prepared, url, apiKey, model);
+                    return;
+                }
+                
+                // 先查总结缓存，未命中时调用总结服务
+                String cacheKey = summaryCacheKey(content, url, model);
+                String summary = apiKey.isEmpty() ? null : SummaryCache.shared().get(cacheKey);
+                boolean cached = summary != null;
+                if (!cached) {
+                    AdmissionController.Permit permit = admit("siliconflow", apiKey, null);
+                    try (permit) {
+                        summary = summarise(content, url, apiKey, model);
+                    }
+                    SummaryCache.shared().put(cacheKey, summary);
+                }
+                
+                // 返回结果
+                JSONObject result = new JSONObject();
+                result.put("summary", summary);
+                result.put("cached", cached);
+                result.put("stats", prepared.toJson());
+                result.put("success", true);
+                JsonCodec.sendJson(exchange, 200, result);
+                
+            } catch (Exception e) {
+                sendFailure(exchange, e);
+            }
+        };
+        server.createContext("/summarise", dispatcher.wrap(metrics.instrument("/summarise", summariseHandler)));
+        server.createContext("/summarise/stream", dispatcher.wrapLongLived(metrics.instrument("/summarise/stream", summariseHandler)));
+        
+        // 批量总结接口，结果按完成顺序以 NDJSON 逐行返回
+        HttpHandler batchHandler = exchange -> {
+            try {
+                // 设置 CORS
+                exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+                exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "POST, OPTIONS");
+                exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type, Content-Encoding");
+                
+                if ("OPTIONS".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    JsonCodec.sendError(exchange, 405, "仅支持 POST 请求");
+                    return;
+                }
+                
+                JSONObject request = JsonCodec.readRequest(exchange);
+                List<BatchSummariser.Item> items = BatchSummariser.parseItems(request);
+                String apiKey = request.getString("apiKey");
+                String model = request.optString("model", "Qwen/Qwen2.5-7B-Instruct");
+                int parallelism = request.optInt("parallelism", BatchSummariser.MAX_PARALLELISM);
+                exchange.setAttribute(Metrics.ATTR_PROVIDER, "siliconflow");
+                exchange.setAttribute(Metrics.ATTR_MODEL, model);
+                if (apiKey.isEmpty()) {
+                    throw new HttpStatusException(400, "API Key 未提供");
+                }
+                
+                // 准入按篇计算（见 BatchSummariser），批次内的并发由 parallelism 控制
+                streamBatch(exchange, items, apiKey, model, parallelism);
+            } catch (Exception e) {
+                sendFailure(exchange, e);
+            }
+        };
+        server.createContext("/summarise/batch", dispatcher.wrapLongLived(metrics.instrument("/summarise/batch", batchHandler)));
+        
+        // 异步总结任务：POST /summarise/jobs 提交，GET /summarise/jobs/{id}?wait=秒数 查询（长轮询）
+        HttpHandler jobsHandler = exchange -> {
+            try {
+                // 设置 CORS
+                exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+                exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
+                exchange.getResponseHeaders().add("Access-Control-Allow-Headers",
+                    "Content-Type, Content-Encoding, Authorization");
+                
+                if ("OPTIONS".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                
+                String jobId = exchange.getRequestURI().getPath().substring("/summarise/jobs".length());
+                if (jobId.startsWith("/")) {
+                    jobId = jobId.substring(1);
+                }
+                
+                if ("GET".equals(exchange.getRequestMethod()) && !jobId.isEmpty()) {
+                    // GET 没有请求体，API Key 放在 Authorization: Bearer 头里
+                    JSONObject result = SummaryJobs.shared().get(jobId, bearerToken(exchange),
+                        queryLong(exchange, "wait", 0) * 1000);
+                    result.put("success", true);
+                    JsonCodec.sendJson(exchange, 200, result);
+                    return;
+                }
+                
+                if (!"POST".equals(exchange.getRequestMethod()) || !jobId.isEmpty()) {
+                    JsonCodec.sendError(exchange, 405, "提交任务使用 POST /summarise/jobs，查询使用 GET /summarise/jobs/{id}");
+                    return;
+                }
+                
+                JSONObject request = JsonCodec.readRequest(exchange);
+                String url = request.optString("url", "");
+                String apiKey = request.getString("apiKey");
+                String model = request.optString("model", "Qwen/Qwen2.5-7B-Instruct");
+                exchange.setAttribute(Metrics.ATTR_PROVIDER, "siliconflow");
+                exchange.setAttribute(Metrics.ATTR_MODEL, model);
+                if (apiKey.isEmpty()) {
+                    throw new HttpStatusException(400, "API Key 未提供");
+                }
+                
+                ContentPipeline.Result prepared = ContentPipeline.shared().process(request.getString("content"));
+                // 提交时做速率检查；同一 Key 未结束的任务数由 SummaryJobs 限制，执行并发由任务线程池控制
+                String id;
+                AdmissionController.Permit permit = admit("siliconflow", apiKey, null);
+                try (permit) {
+                    id = SummaryJobs.shared().submit(prepared, url, apiKey, model);
+                }
+                
+                JSONObject result = new JSONObject();
+                result.put("jobId", id);
+                result.put("status", SummaryJobs.QUEUED);
+                result.put("success", true);
+                exchange.getResponseHeaders().set("Location", "/summarise/jobs/" + id);
+                JsonCodec.sendJson(exchange, 202, result);
+            } catch (Exception e) {
+                sendFailure(exchange, e);
+            }
+        };
+        server.createContext("/summarise/jobs", dispatcher.wrapLongLived(metrics.instrument("/summarise/jobs", jobsHandler)));
+        
+        // 运行指标（Prometheus 文本格式）
+        registerComponentMetrics(metrics, dispatcher);
+        server.createContext("/metrics", metrics.handler());
+        
+        server.setExecutor(null);
+        server.start();
+        
+        // 可选：启动时预先和上游建立连接
+        if (ServerConfig.getBoolean("upstream.prewarm", false)) {
+            UpstreamClient.shared().prewarm();
+        }
+        EventLog.info("server.started", "port", port, "executor", dispatcher.getMode(),
+            "try", "curl -X POST http://localhost:" + port + "/summarise -H 'Content-Type: application/json' -d '{\"content\":\"测试内容\"}'");
+    }
+}
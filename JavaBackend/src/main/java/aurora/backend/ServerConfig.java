@@ -0,0 +1,59 @@
+package aurora.backend;
+
+/**
+ * 服务配置读取
+ * 优先读取 JVM 系统属性（-Daurora.xxx.yyy=...），其次读取环境变量（AURORA_XXX_YYY），最后使用默认值
+ * EventLog 自己的配置也从这里读取，所以这里的提示直接写标准输出
+ */
+public final class ServerConfig {
+
+    private ServerConfig() {
+    }
+
+    /**
+     * 读取字符串配置
+     * @param key 配置名，例如 "executor.mode"
+     * @param defaultValue 默认值
+     */
+    public static String getString(String key, String defaultValue) {
+        String value = System.getProperty("aurora." + key);
+        if (value == null || value.isEmpty()) {
+            value = System.getenv("AURORA_" + key.toUpperCase().replace('.', '_').replace('-', '_'));
+        }
+        return (value == null || value.isEmpty()) ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.out.println("配置 " + key + " 不是合法整数: " + value + "，使用默认值 " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.out.println("配置 " + key + " 不是合法整数: " + value + "，使用默认值 " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        return "true".equalsIgnoreCase(value) || "1".equals(value) || "yes".equalsIgnoreCase(value);
+    }
+}
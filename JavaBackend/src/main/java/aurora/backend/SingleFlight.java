@@ -0,0 +1,85 @@
+package aurora.backend;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 相同请求合并（single-flight）
+ *
+ * 同一个键同时只会有一个调用真正执行，其余并发到达的调用等待它的结果；
+ * 成功时共享返回值，失败时所有等待者收到同一个异常。调用结束后立即移除，不做缓存。
+ *
+ * @param <V> 返回值类型
+ */
+public final class SingleFlight<V> {
+
+    private final Map<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+
+    /**
+     * 执行或加入一个进行中的调用
+     * @param key 请求的规范化摘要
+     * @param call 真正的调用，只会在第一个到达的线程上执行
+     */
+    public V execute(String key, Callable<V> call) throws Exception {
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            shared.incrementAndGet();
+            return await(existing);
+        }
+
+        executed.incrementAndGet();
+        try {
+            V value = call.call();
+            inFlight.remove(key, created);
+            created.complete(value);
+            return value;
+        } catch (Exception | Error e) {
+            inFlight.remove(key, created);
+            created.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * 真正发往上游的调用次数
+     */
+    public long getExecuted() {
+        return executed.get();
+    }
+
+    /**
+     * 通过合并节省下来的上游调用次数
+     */
+    public long getShared() {
+        return shared.get();
+    }
+
+    /**
+     * 当前正在进行的调用数
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    private static <V> V await(CompletableFuture<V> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
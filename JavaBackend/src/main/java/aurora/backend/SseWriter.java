@@ -0,0 +1,64 @@
+package aurora.backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Server-Sent Events 输出
+ *
+ * 响应头在第一条事件发出时才写出，所以在此之前抛出的异常仍然可以按普通 JSON 错误返回。
+ * 响应使用分块传输，每条事件写完立即 flush；写入是阻塞的，客户端读得慢时调用方会被自然地拖慢。
+ */
+public final class SseWriter implements Closeable {
+
+    private final HttpExchange exchange;
+    private OutputStream out;
+
+    public SseWriter(HttpExchange exchange) {
+        this.exchange = exchange;
+    }
+
+    /**
+     * 是否已经写出响应头
+     */
+    public boolean isStarted() {
+        return out != null;
+    }
+
+    /**
+     * 发送一条事件
+     * @param event 事件名，为 null 时发送默认的 message 事件
+     * @param data 事件数据（单行 JSON）
+     */
+    public void send(String event, String data) throws IOException {
+        start();
+        StringBuilder frame = new StringBuilder(data.length() + 32);
+        if (event != null) {
+            frame.append("event: ").append(event).append('\n');
+        }
+        frame.append("data: ").append(data).append("\n\n");
+        out.write(frame.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private void start() throws IOException {
+        if (out != null) {
+            return;
+        }
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+        exchange.getResponseHeaders().add("X-Accel-Buffering", "no");
+        // 长度为 0 表示分块传输
+        exchange.sendResponseHeaders(200, 0);
+        out = exchange.getResponseBody();
+    }
+
+    @Override
+    public void close() {
+        exchange.close();
+    }
+}
@@ -0,0 +1,251 @@
+package aurora.backend;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 网页总结缓存 - 同一篇文章（同一模型、同一提示词）只调用一次大模型
+ *
+ * 键是 (提示词模板, 模型, 网址, 规范化后的正文) 的 SHA-256，由调用方通过 key() 计算。
+ * 内存中按 LRU 淘汰，同时限制条目数和总字节数；
+ * 可选地把每条结果追加写入磁盘文件，重启时回放，文件里失效记录过多时自动重写压缩。
+ *
+ * 配置项：
+ *   summary.cache.enabled      是否启用，默认 true
+ *   summary.cache.max-entries  最大条目数，默认 1024
+ *   summary.cache.max-bytes    最大占用字节数（按字符数 * 2 估算），默认 16MB
+ *   summary.cache.file         持久化文件路径，为空时只缓存在内存
+ */
+public final class SummaryCache {
+
+    private static final SummaryCache SHARED = new SummaryCache(
+        ServerConfig.getBoolean("summary.cache.enabled", true),
+        ServerConfig.getInt("summary.cache.max-entries", 1024),
+        ServerConfig.getLong("summary.cache.max-bytes", 16L * 1024 * 1024),
+        ServerConfig.getString("summary.cache.file", ""));
+
+    // 每个条目的固定开销估算（键、链表节点等）
+    private static final int ENTRY_OVERHEAD_BYTES = 64 * 2 + 64;
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final Path file;
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long currentBytes;
+    private BufferedWriter journal;
+    private long journalRecords;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    SummaryCache(boolean enabled, int maxEntries, long maxBytes, String filePath) {
+        this.enabled = enabled;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.file = (filePath == null || filePath.isEmpty()) ? null : Paths.get(filePath);
+        if (enabled && file != null) {
+            load();
+        }
+    }
+
+    public static SummaryCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * 计算缓存键
+     * 正文会先去掉首尾空白并把连续空白合并成一个空格，避免排版差异导致缓存不命中
+     */
+    public static String key(String promptTemplate, String model, String pageUrl, String pageContent) {
+        return Hashing.sha256Hex(promptTemplate, model, pageUrl == null ? "" : pageUrl, normalize(pageContent));
+    }
+
+    /**
+     * 查询缓存，同时更新命中 / 未命中计数
+     * @return 缓存的总结，没有时返回 null
+     */
+    public String get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        String value;
+        synchronized (this) {
+            value = entries.get(key);
+        }
+        if (value != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * 写入缓存（启用持久化时同时追加到磁盘）
+     */
+    public void put(String key, String summary) {
+        if (!enabled || summary == null || summary.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            putInMemory(key, summary);
+            appendToJournal(key, summary);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long sizeInBytes() {
+        return currentBytes;
+    }
+
+    private void putInMemory(String key, String summary) {
+        String previous = entries.put(key, summary);
+        if (previous != null) {
+            currentBytes -= weigh(previous);
+        }
+        currentBytes += weigh(summary);
+
+        Iterator<Map.Entry<String, String>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || currentBytes > maxBytes) && it.hasNext()) {
+            Map.Entry<String, String> eldest = it.next();
+            if (eldest.getKey().equals(key) && entries.size() == 1) {
+                break;
+            }
+            currentBytes -= weigh(eldest.getValue());
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void appendToJournal(String key, String summary) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            JSONObject record = new JSONObject();
+            record.put("k", key);
+            record.put("v", summary);
+            journal.write(record.toString());
+            journal.write('\n');
+            journal.flush();
+            journalRecords++;
+            // 失效记录超过有效记录的两倍时重写文件
+            if (journalRecords > 2L * Math.max(entries.size(), 64)) {
+                compact();
+            }
+        } catch (IOException e) {
+            EventLog.warn("summary-cache.write-failed", "file", file, "error", e.getMessage());
+            closeJournal();
+        }
+    }
+
+    /**
+     * 启动时回放磁盘文件
+     */
+    private synchronized void load() {
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            if (Files.exists(file)) {
+                try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isEmpty()) {
+                            continue;
+                        }
+                        try {
+                            JSONObject record = new JSONObject(line);
+                            putInMemory(record.getString("k"), record.getString("v"));
+                            journalRecords++;
+                        } catch (JSONException e) {
+                            // 进程异常退出时最后一行可能不完整，跳过即可
+                        }
+                    }
+                }
+                EventLog.info("summary-cache.loaded", "file", file, "entries", entries.size());
+            }
+            compact();
+        } catch (IOException e) {
+            EventLog.warn("summary-cache.open-failed", "file", file, "error", e.getMessage());
+            closeJournal();
+        }
+    }
+
+    /**
+     * 只保留内存中仍然有效的条目，重写磁盘文件
+     */
+    private void compact() throws IOException {
+        closeJournal();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        List<Map.Entry<String, String>> snapshot = new ArrayList<>(entries.entrySet());
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> entry : snapshot) {
+                JSONObject record = new JSONObject();
+                record.put("k", entry.getKey());
+                record.put("v", entry.getValue());
+                writer.write(record.toString());
+                writer.write('\n');
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journalRecords = snapshot.size();
+        journal = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ignored) {
+                // 关闭失败不影响内存缓存
+            }
+            journal = null;
+        }
+    }
+
+    private static long weigh(String summary) {
+        return ENTRY_OVERHEAD_BYTES + summary.length() * 2L;
+    }
+
+    private static String normalize(String content) {
+        if (content == null) {
+            return "";
+        }
+        return content.trim().replaceAll("\\s+", " ");
+    }
+}
@@ -0,0 +1,302 @@
+package aurora.backend;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONObject;
+
+/**
+ * 异步总结任务 - 提交后立即返回任务 ID，由后台线程池调用上游，客户端之后凭 ID 取结果
+ *
+ * 任务状态：queued -> running -> done / failed，每次变化都追加到 JobLog，重启后已结束的任务仍然可以查询。
+ * 正文不写入日志，所以重启前还没结束的任务在启动时标记为 failed，需要客户端重新提交。
+ * 任务绑定提交时的 API Key（按摘要比较），其他 Key 查询时和不存在一样返回 404。
+ *
+ * 配置项：
+ *   job.workers              执行任务的线程数，默认 4
+ *   job.queue.size           等待执行的任务上限，超过时返回 429，默认 100
+ *   job.per-key.max-pending  同一个 API Key 排队加执行中的任务上限，超过时返回 429，默认 8，0 表示不限
+ *   job.poll.max-wait-ms     长轮询最长等待时间，默认 30000
+ *   job.poll.max-waiters     同时挂起的长轮询上限，默认 32；满了以后的查询立即返回当前状态，
+ *                            避免长轮询占满请求线程
+ *   以及 JobLog 的 job.log.* / job.ttl-ms
+ */
+public final class SummaryJobs {
+
+    public static final String QUEUED = "queued";
+    public static final String RUNNING = "running";
+    public static final String DONE = "done";
+    public static final String FAILED = "failed";
+
+    private static final SummaryJobs SHARED = new SummaryJobs(JobLog.fromConfig(),
+        ServerConfig.getInt("job.workers", 4),
+        ServerConfig.getInt("job.queue.size", 100),
+        ServerConfig.getLong("job.poll.max-wait-ms", 30_000),
+        ServerConfig.getInt("job.per-key.max-pending", 8),
+        ServerConfig.getInt("job.poll.max-waiters", 32));
+
+    private final JobLog log;
+    private final ThreadPoolExecutor workers;
+    private final long maxWaitMillis;
+    private final int maxPendingPerKey;
+    private final Semaphore waiters;
+    // 还没结束的任务，长轮询在这里等待
+    private final Map<String, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+    // Key 摘要 -> 还没结束的任务数，只保存有未结束任务的 Key
+    private final Map<String, Integer> pendingByKey = new ConcurrentHashMap<>();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejectedPerKey = new LongAdder();
+    private final LongAdder pollsNotWaited = new LongAdder();
+
+    SummaryJobs(JobLog log, int workerCount, int queueSize, long maxWaitMillis, int maxPendingPerKey,
+            int maxWaiters) {
+        this.log = log;
+        this.maxWaitMillis = Math.max(0, maxWaitMillis);
+        this.maxPendingPerKey = Math.max(0, maxPendingPerKey);
+        this.waiters = new Semaphore(Math.max(0, maxWaiters));
+        int threads = Math.max(1, workerCount);
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueSize)), runnable -> {
+                Thread thread = new Thread(runnable, "aurora-job-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        failInterrupted();
+    }
+
+    public static SummaryJobs shared() {
+        return SHARED;
+    }
+
+    /**
+     * 提交一个总结任务
+     * @param prepared 经过 ContentPipeline 预处理的正文
+     * @return 任务 ID
+     * @throws HttpStatusException 429，这个 Key 未结束的任务过多或任务队列已满
+     */
+    public String submit(ContentPipeline.Result prepared, String url, String apiKey, String model)
+            throws HttpStatusException {
+        String keyId = Hashing.keyId(apiKey);
+        if (!reserve(keyId)) {
+            rejectedPerKey.increment();
+            throw new HttpStatusException(429, "这个 API Key 未完成的任务过多，请稍后重试", 5);
+        }
+        String id = UUID.randomUUID().toString();
+        long now = System.currentTimeMillis();
+        JSONObject job = new JSONObject();
+        job.put("id", id);
+        job.put("keyId", keyId);
+        job.put("url", url);
+        job.put("model", model);
+        job.put("stats", prepared.toJson());
+        job.put("createdAt", now);
+
+        pending.put(id, new CompletableFuture<>());
+        try {
+            workers.execute(() -> run(job, prepared.getContent(), apiKey));
+        } catch (RejectedExecutionException e) {
+            pending.remove(id);
+            release(keyId);
+            throw new HttpStatusException(429, "后台任务过多，请稍后重试", 5);
+        }
+        // 任务可能已经开始执行，queued 只在还没有更新的状态时写入
+        synchronized (job) {
+            if (!job.has("status")) {
+                update(job, QUEUED);
+            }
+        }
+        submitted.increment();
+        return id;
+    }
+
+    /**
+     * 查询任务；任务还没结束且 waitMillis > 0 时最多等待这么久（长轮询）
+     * 同时挂起的长轮询达到 job.poll.max-waiters 时不再等待，直接返回当前状态
+     * @return 任务当前状态（不含 keyId），见 toResponse
+     * @throws HttpStatusException 404，任务不存在、已过期或不属于这个 API Key
+     */
+    public JSONObject get(String id, String apiKey, long waitMillis) throws HttpStatusException, InterruptedException {
+        JSONObject job = find(id, apiKey);
+        if (!JobLog.isTerminal(job.getString("status")) && waitMillis > 0) {
+            CompletableFuture<Void> done = pending.get(id);
+            if (done != null && waiters.tryAcquire()) {
+                try {
+                    done.get(Math.min(waitMillis, maxWaitMillis), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // 超时返回当前状态，客户端继续轮询
+                } catch (ExecutionException e) {
+                    // 不会以异常结束
+                } finally {
+                    waiters.release();
+                }
+                job = find(id, apiKey);
+            } else if (done != null) {
+                pollsNotWaited.increment();
+            }
+        }
+        return toResponse(job);
+    }
+
+    private JSONObject find(String id, String apiKey) throws HttpStatusException {
+        JSONObject job = id == null || id.isEmpty() ? null : log.get(id);
+        if (job == null || !job.optString("keyId").equals(Hashing.keyId(apiKey))) {
+            throw new HttpStatusException(404, "任务不存在或已过期");
+        }
+        return job;
+    }
+
+    private void run(JSONObject job, String content, String apiKey) {
+        String id;
+        String keyId;
+        String url;
+        String model;
+        // job 同时被提交线程访问，读写都在 synchronized (job) 里
+        synchronized (job) {
+            id = job.getString("id");
+            keyId = job.getString("keyId");
+            url = job.getString("url");
+            model = job.getString("model");
+            update(job, RUNNING);
+        }
+        try {
+            String cacheKey = Server.summaryCacheKey(content, url, model);
+            String summary = SummaryCache.shared().get(cacheKey);
+            boolean cached = summary != null;
+            if (!cached) {
+                summary = Server.summarise(content, url, apiKey, model);
+                SummaryCache.shared().put(cacheKey, summary);
+            }
+            synchronized (job) {
+                job.put("summary", summary);
+                job.put("cached", cached);
+                update(job, DONE);
+            }
+            completed.increment();
+        } catch (Exception e) {
+            synchronized (job) {
+                job.put("error", e.getMessage() == null ? e.toString() : e.getMessage());
+                job.put("errorStatus", e instanceof HttpStatusException ? ((HttpStatusException) e).getStatus() : 500);
+                update(job, FAILED);
+            }
+            failed.increment();
+        } finally {
+            release(keyId);
+            CompletableFuture<Void> done = pending.remove(id);
+            if (done != null) {
+                done.complete(null);
+            }
+        }
+    }
+
+    /**
+     * 为这个 Key 占一个未结束任务的名额，已满时返回 false
+     */
+    private boolean reserve(String keyId) {
+        if (maxPendingPerKey == 0) {
+            return true;
+        }
+        boolean[] reserved = new boolean[1];
+        pendingByKey.compute(keyId, (key, count) -> {
+            int current = count == null ? 0 : count;
+            if (current >= maxPendingPerKey) {
+                return count;
+            }
+            reserved[0] = true;
+            return current + 1;
+        });
+        return reserved[0];
+    }
+
+    private void release(String keyId) {
+        if (maxPendingPerKey > 0) {
+            pendingByKey.computeIfPresent(keyId, (key, count) -> count <= 1 ? null : count - 1);
+        }
+    }
+
+    private void update(JSONObject job, String status) {
+        job.put("status", status);
+        job.put("updatedAt", System.currentTimeMillis());
+        log.append(job);
+    }
+
+    /**
+     * 重启前没有结束的任务：正文没有持久化，无法继续执行
+     */
+    private void failInterrupted() {
+        for (String id : log.unfinished()) {
+            JSONObject job = log.get(id);
+            if (job == null) {
+                continue;
+            }
+            job.put("error", "服务重启，任务已中断，请重新提交");
+            job.put("errorStatus", 503);
+            update(job, FAILED);
+        }
+    }
+
+    /**
+     * 返回给客户端的字段：{"jobId", "status", "url", "model", "createdAt", "updatedAt", "stats",
+     * 完成时 "summary" / "cached"，失败时 "error" / "errorStatus"}
+     */
+    private static JSONObject toResponse(JSONObject job) {
+        JSONObject response = new JSONObject();
+        response.put("jobId", job.getString("id"));
+        for (String field : new String[] {"status", "url", "model", "createdAt", "updatedAt", "stats",
+                "summary", "cached", "error", "errorStatus"}) {
+            if (job.has(field)) {
+                response.put(field, job.get(field));
+            }
+        }
+        return response;
+    }
+
+    public int getQueueDepth() {
+        return workers.getQueue().size();
+    }
+
+    public int getActive() {
+        return workers.getActiveCount();
+    }
+
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getRejectedPerKey() {
+        return rejectedPerKey.sum();
+    }
+
+    /**
+     * 因为长轮询名额已满而没有等待、直接返回的查询数
+     */
+    public long getPollsNotWaited() {
+        return pollsNotWaited.sum();
+    }
+
+    public JobLog getLog() {
+        return log;
+    }
+}
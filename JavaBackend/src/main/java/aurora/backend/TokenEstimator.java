@@ -0,0 +1,51 @@
+package aurora.backend;
+
+/**
+ * 本地 token 数估算
+ *
+ * 不依赖具体模型的分词器，只用于做预算判断：
+ * 中日韩字符大致按 1 字 1 token 计算，其余字符按约 4 个字符 1 token 计算。
+ * 对 Qwen / DeepSeek 系列模型来说这个估算略偏大，用作上限是安全的。
+ */
+public final class TokenEstimator {
+
+    private TokenEstimator() {
+    }
+
+    /**
+     * 估算文本的 token 数
+     */
+    public static int estimate(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char ch = text.charAt(i);
+            if (isCjk(ch)) {
+                cjk++;
+            } else if (!Character.isWhitespace(ch)) {
+                other++;
+            } else if (i > 0 && !Character.isWhitespace(text.charAt(i - 1))) {
+                // 连续空白只算一次分隔
+                other++;
+            }
+        }
+        return cjk + (other + 3) / 4;
+    }
+
+    /**
+     * 在给定 token 预算内，文本大约能容纳多少个字符（按最坏情况的中文计算）
+     */
+    public static int charsForTokens(int tokens) {
+        return Math.max(1, tokens);
+    }
+
+    static boolean isCjk(char ch) {
+        return (ch >= 0x2E80 && ch <= 0x9FFF)   // 部首、标点、假名、统一汉字
+            || (ch >= 0xAC00 && ch <= 0xD7AF)   // 韩文音节
+            || (ch >= 0xF900 && ch <= 0xFAFF)   // 兼容汉字
+            || (ch >= 0xFF00 && ch <= 0xFFEF);  // 全角字符
+    }
+}
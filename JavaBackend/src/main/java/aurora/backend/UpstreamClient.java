@@ -0,0 +1,321 @@
+package aurora.backend;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 上游 API 客户端 - 所有对硅基流动 / RAGFlow 的调用共用长连接
+ *
+ * 每个 provider 持有一个进程级的 java.net.http.HttpClient：
+ * HTTPS 上游走 HTTP/2 多路复用，明文 http:// 上游（通常是本地 RAGFlow）固定 HTTP/1.1 keep-alive，
+ * 避免每条消息都重新做一次 TCP + TLS 握手。
+ *
+ * 超时配置（毫秒）：
+ *   upstream.siliconflow.connect-timeout / upstream.siliconflow.read-timeout
+ *   upstream.ragflow.connect-timeout     / upstream.ragflow.read-timeout
+ *   upstream.stream.idle-timeout         流式响应体读取时的最长空闲时间，默认 60000，0 表示不限制
+ *   非流式响应体的读取同样有空闲超时，取本次请求的超时时间（见 IdleTimeoutInputStream）
+ * 线程配置：
+ *   upstream.callback-threads  HttpClient 回调线程数，默认 max(2, CPU 核数)
+ * 压缩配置（见 HttpCompression）：
+ *   upstream.siliconflow.gzip-requests / upstream.ragflow.gzip-requests  请求体是否以 gzip 发送，默认 false
+ * 预热配置：
+ *   upstream.prewarm        是否在启动时预先建立连接（硅基流动按 upstream.siliconflow.url 的地址），默认 false
+ *   upstream.prewarm.urls   额外需要预热的地址，逗号分隔（例如 RAGFlow Base URL）
+ */
+public final class UpstreamClient {
+
+    public enum Provider {
+        SILICONFLOW("siliconflow", 5_000, 120_000),
+        RAGFLOW("ragflow", 5_000, 120_000);
+
+        private final String id;
+        private final int defaultConnectTimeoutMs;
+        private final int defaultReadTimeoutMs;
+
+        Provider(String id, int defaultConnectTimeoutMs, int defaultReadTimeoutMs) {
+            this.id = id;
+            this.defaultConnectTimeoutMs = defaultConnectTimeoutMs;
+            this.defaultReadTimeoutMs = defaultReadTimeoutMs;
+        }
+
+        public String id() {
+            return id;
+        }
+    }
+
+    // 流式响应两次读取之间允许的最长间隔；非流式响应体的每次读取不超过本次尝试的超时
+    private static final long STREAM_IDLE_TIMEOUT_MS = ServerConfig.getLong("upstream.stream.idle-timeout", 60_000);
+
+    private static final UpstreamClient SHARED = new UpstreamClient();
+
+    private final Map<Provider, HttpClient> clients = new EnumMap<>(Provider.class);
+    private final Map<Provider, Duration> readTimeouts = new EnumMap<>(Provider.class);
+    private final Map<Provider, Boolean> gzipRequests = new EnumMap<>(Provider.class);
+
+    private UpstreamClient() {
+        AtomicInteger counter = new AtomicInteger();
+        // HttpClient 内部的 selector 线程之外，回调在这个固定大小的小线程池上执行；
+        // 回调只搬运数据不阻塞（阻塞读在请求线程上），任务多时排队而不是继续加线程
+        int callbackThreads = ServerConfig.getInt("upstream.callback-threads",
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+        java.util.concurrent.Executor callbackExecutor = Executors.newFixedThreadPool(callbackThreads, runnable -> {
+            Thread thread = new Thread(runnable, "aurora-upstream-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Provider provider : Provider.values()) {
+            int connectTimeout = ServerConfig.getInt(
+                "upstream." + provider.id + ".connect-timeout", provider.defaultConnectTimeoutMs);
+            int readTimeout = ServerConfig.getInt(
+                "upstream." + provider.id + ".read-timeout", provider.defaultReadTimeoutMs);
+            clients.put(provider, HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeout))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(callbackExecutor)
+                .build());
+            readTimeouts.put(provider, Duration.ofMillis(readTimeout));
+            gzipRequests.put(provider, ServerConfig.getBoolean("upstream." + provider.id + ".gzip-requests", false));
+        }
+    }
+
+    /**
+     * 进程内共享的客户端实例
+     */
+    public static UpstreamClient shared() {
+        return SHARED;
+    }
+
+    /**
+     * 发送 JSON POST 请求，响应体以输入流返回，由调用方边读边解析（上游压缩时边读边解压，不整体缓冲）
+     * @param provider 上游类型，决定使用哪组连接池和超时
+     * @param model 模型名称，仅用于指标标签
+     * @param url 完整请求地址
+     * @param apiKey Bearer Token
+     * @param jsonBody 请求体
+     * @return 上游响应（不检查状态码，由调用方处理并关闭响应体）
+     */
+    public HttpResponse<InputStream> postJsonRaw(Provider provider, String model, String url, String apiKey,
+            String jsonBody) throws IOException, InterruptedException {
+        return postJsonRaw(provider, model, url, apiKey, jsonBody, readTimeouts.get(provider));
+    }
+
+    /**
+     * 同 postJsonRaw，使用指定的超时时间（由调用方按剩余期限计算）
+     */
+    public HttpResponse<InputStream> postJsonRaw(Provider provider, String model, String url, String apiKey,
+            String jsonBody, Duration timeout) throws IOException, InterruptedException {
+        HttpRequest request = jsonPost(provider, url, apiKey, timeout, jsonBody)
+            .header("Accept-Encoding", HttpCompression.GZIP)
+            .build();
+        return sendForStream(provider, model, request, timeout.toMillis());
+    }
+
+    /**
+     * 发送 JSON POST 请求并以流的方式读取响应（用于 stream=true 的 SSE 响应）
+     * 读超时只约束响应头到达之前的时间，之后由调用方按块读取（CompletionStream.relay 负责空闲超时）
+     */
+    public HttpResponse<InputStream> postJsonStream(Provider provider, String model, String url, String apiKey,
+            String jsonBody) throws IOException, InterruptedException {
+        return postJsonStream(provider, model, url, apiKey, jsonBody, readTimeouts.get(provider));
+    }
+
+    /**
+     * 同 postJsonStream，使用指定的超时时间（只约束响应头到达之前的时间）
+     */
+    public HttpResponse<InputStream> postJsonStream(Provider provider, String model, String url, String apiKey,
+            String jsonBody, Duration timeout) throws IOException, InterruptedException {
+        // 不要求压缩：上游压缩 SSE 时可能攒够一个压缩块才发出，拖慢首字
+        HttpRequest request = jsonPost(provider, url, apiKey, timeout, jsonBody)
+            .header("Accept", "text/event-stream")
+            .build();
+        return sendForStream(provider, model, request, STREAM_IDLE_TIMEOUT_MS);
+    }
+
+    /**
+     * provider 配置的读超时
+     */
+    public Duration readTimeout(Provider provider) {
+        return readTimeouts.get(provider);
+    }
+
+    /**
+     * 发送 GET 请求，响应体以输入流返回（由调用方关闭）
+     * @param timeout 本次请求的超时时间，为 null 时使用 provider 的读超时
+     */
+    public HttpResponse<InputStream> get(Provider provider, String url, String apiKey, Duration timeout)
+            throws IOException, InterruptedException {
+        Duration effective = timeout != null ? timeout : readTimeouts.get(provider);
+        HttpRequest request = newRequest(provider, url, apiKey, effective)
+            .header("Accept-Encoding", HttpCompression.GZIP)
+            .GET()
+            .build();
+        return sendForStream(provider, "", request, effective.toMillis());
+    }
+
+    /**
+     * JSON POST 请求；provider 开启了 gzip-requests 且请求体超过压缩阈值时以 gzip 发送
+     */
+    private HttpRequest.Builder jsonPost(Provider provider, String url, String apiKey, Duration timeout,
+            String jsonBody) {
+        HttpRequest.Builder builder = newRequest(provider, url, apiKey, timeout)
+            .header("Content-Type", "application/json");
+        if (gzipRequests.get(provider) && jsonBody.length() >= HttpCompression.MIN_BYTES) {
+            return builder
+                .header("Content-Encoding", HttpCompression.GZIP)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(HttpCompression.gzip(jsonBody)));
+        }
+        return builder.POST(HttpRequest.BodyPublishers.ofString(jsonBody, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 发送请求，响应体以输入流返回；总时间在流读完或关闭时记录
+     * @param idleTimeoutMs 读响应体时单次读取允许阻塞的最长时间，0 表示不限制
+     */
+    private HttpResponse<InputStream> sendForStream(Provider provider, String model, HttpRequest request,
+            long idleTimeoutMs) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        try {
+            return clients.get(provider).send(request, info -> {
+                long ttfb = System.nanoTime() - start;
+                int status = info.statusCode();
+                String encoding = HttpCompression.contentEncoding(info.headers());
+                return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofInputStream(),
+                    body -> HttpCompression.decodeUpstream(new TimedInputStream(
+                        IdleTimeoutInputStream.wrap(body, idleTimeoutMs), provider.id, model, status, start, ttfb),
+                        encoding));
+            });
+        } catch (IOException e) {
+            Metrics.shared().recordUpstreamError(provider.id, model, e);
+            throw e;
+        }
+    }
+
+    /**
+     * 预热连接：异步对上游发一个轻量请求，让 TCP/TLS/HTTP2 连接在第一条用户消息之前建立好
+     * 请求结果（包括 401）都会被忽略，只关心连接本身
+     */
+    public void prewarm() {
+        List<String> urls = new ArrayList<>();
+        String siliconFlowUrl = siliconFlowPrewarmUrl();
+        urls.add(siliconFlowUrl);
+        String extra = ServerConfig.getString("upstream.prewarm.urls", "");
+        for (String url : extra.split(",")) {
+            if (!url.isBlank()) {
+                urls.add(url.trim());
+            }
+        }
+        for (String url : urls) {
+            Provider provider = url.equals(siliconFlowUrl) ? Provider.SILICONFLOW : Provider.RAGFLOW;
+            HttpRequest request;
+            try {
+                request = newRequest(provider, url, null, Duration.ofSeconds(10))
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                    .build();
+            } catch (IllegalArgumentException e) {
+                EventLog.warn("upstream.prewarm-invalid", "url", url);
+                continue;
+            }
+            clients.get(provider)
+                .sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    if (error != null) {
+                        EventLog.warn("upstream.prewarm-failed", "url", url, "error", error.getMessage());
+                    } else {
+                        EventLog.info("upstream.prewarmed", "url", url, "version", response.version());
+                    }
+                });
+        }
+    }
+
+    /**
+     * 硅基流动的预热地址：和实际调用同一个 origin（配置了模拟上游或代理时预热的就是它），
+     * 路径取同版本的 /models
+     */
+    static String siliconFlowPrewarmUrl() {
+        String url = ServerConfig.getString("upstream.siliconflow.url", "https://api.siliconflow.cn/v1/chat/completions");
+        URI uri = URI.create(url.trim());
+        String path = uri.getPath() == null ? "" : uri.getPath();
+        int chat = path.lastIndexOf("/chat/completions");
+        String prewarmPath = chat >= 0 ? path.substring(0, chat) + "/models" : "/";
+        return uri.getScheme() + "://" + uri.getRawAuthority() + prewarmPath;
+    }
+
+    /**
+     * 在读到末尾或被关闭时记录一次上游调用指标
+     */
+    private static final class TimedInputStream extends FilterInputStream {
+        private final String provider;
+        private final String model;
+        private final int status;
+        private final long start;
+        private final long ttfb;
+        private boolean recorded;
+
+        TimedInputStream(InputStream in, String provider, String model, int status, long start, long ttfb) {
+            super(in);
+            this.provider = provider;
+            this.model = model;
+            this.status = status;
+            this.start = start;
+            this.ttfb = ttfb;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                record();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n < 0) {
+                record();
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            record();
+            super.close();
+        }
+
+        private void record() {
+            if (!recorded) {
+                recorded = true;
+                Metrics.shared().recordUpstream(provider, model, status, ttfb, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static HttpRequest.Builder newRequest(Provider provider, String url, String apiKey, Duration timeout) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).timeout(timeout);
+        if (url.startsWith("http://")) {
+            // 明文地址不做 h2c 升级，部分 RAGFlow 部署前面的代理不支持
+            builder.version(HttpClient.Version.HTTP_1_1);
+        }
+        if (apiKey != null && !apiKey.isEmpty()) {
+            builder.header("Authorization", "Bearer " + apiKey);
+        }
+        return builder;
+    }
+}
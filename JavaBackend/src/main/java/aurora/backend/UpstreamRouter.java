@@ -0,0 +1,299 @@
+package aurora.backend;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按延迟在一组等价的上游之间路由
+ *
+ * 一个池是一组有序的等价目标：硅基流动的几个可互相替代的模型，或几个 RAGFlow 实例的 Base URL。
+ * 请求指定的模型 / Base URL 是某个池的第一个目标时，在整个池里选择；不在任何池里的请求原样发出。
+ *
+ * 选择方式（power of two choices）：从健康的目标里随机取两个，选得分低的那个，
+ * 得分 = 成功延迟的 EWMA × (进行中请求数 + 1) × (1 + 错误率 EWMA × 4)，相同时取池里靠前的。
+ * 还没有延迟样本的目标优先被选中（多个时按进行中请求数分摊），用来拿到第一个样本。
+ * 错误率 EWMA 超过 routing.unhealthy-error-rate 的目标不参与选择，但每隔 routing.probe-interval-ms 放行一个请求试探；
+ * 全部不健康时仍然在全部目标里选。
+ * 选中的目标出现暂时性失败（重试之后仍然失败，或熔断）时，在剩余期限内换一个还没试过的目标再调用一次。
+ *
+ * 配置项：
+ *   routing.siliconflow.pools        硅基流动模型池，池之间用 ; 分隔，池内用 , 分隔，
+ *                                    例如 Qwen/Qwen2.5-7B-Instruct,THUDM/glm-4-9b-chat;deepseek-ai/DeepSeek-V3,Qwen/Qwen2.5-72B-Instruct
+ *   routing.ragflow.pools            RAGFlow Base URL 池，格式同上（各实例需要接受同一个 API Key）
+ *   routing.ewma.alpha               EWMA 平滑系数，默认 0.2
+ *   routing.unhealthy-error-rate     错误率超过多少视为不健康，默认 0.5
+ *   routing.probe-interval-ms        不健康目标的试探间隔，默认 5000
+ *   routing.failover                 失败后是否换目标重试一次，默认 true
+ */
+public final class UpstreamRouter {
+
+    /**
+     * 对选中的目标发起一次调用
+     */
+    @FunctionalInterface
+    public interface RoutedCall<T> {
+        /**
+         * @param target 选中的模型名或 Base URL
+         * @param deadline 整个调用（包括换目标）共享的期限，传给 Resilience.call
+         */
+        T call(String target, long deadline) throws Exception;
+    }
+
+    private static final double ALPHA = Double.parseDouble(ServerConfig.getString("routing.ewma.alpha", "0.2"));
+    private static final double UNHEALTHY_ERROR_RATE = Double.parseDouble(
+        ServerConfig.getString("routing.unhealthy-error-rate", "0.5"));
+    private static final long PROBE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(
+        ServerConfig.getLong("routing.probe-interval-ms", 5000));
+    private static final boolean FAILOVER = ServerConfig.getBoolean("routing.failover", true);
+
+    // 错误率对得分的放大倍数
+    private static final double ERROR_PENALTY = 4;
+
+    private static final UpstreamRouter SILICONFLOW = fromConfig(UpstreamClient.Provider.SILICONFLOW);
+    private static final UpstreamRouter RAGFLOW = fromConfig(UpstreamClient.Provider.RAGFLOW);
+
+    private final UpstreamClient.Provider provider;
+    // 池的第一个目标 -> 池
+    private final Map<String, List<Target>> pools = new HashMap<>();
+    private final List<Target> targets = new ArrayList<>();
+    private final LongAdder failovers = new LongAdder();
+
+    UpstreamRouter(UpstreamClient.Provider provider, String poolConfig) {
+        this.provider = provider;
+        for (String poolSpec : poolConfig.split(";")) {
+            List<Target> pool = new ArrayList<>();
+            for (String name : poolSpec.split(",")) {
+                String target = normalize(name);
+                if (!target.isEmpty()) {
+                    pool.add(new Target(pool.isEmpty() ? target : pool.get(0).pool, target, pool.size()));
+                }
+            }
+            if (pool.size() < 2) {
+                continue;
+            }
+            if (pools.putIfAbsent(pool.get(0).name, Collections.unmodifiableList(pool)) != null) {
+                EventLog.warn("routing.duplicate-pool", "provider", provider.id(), "pool", poolSpec);
+                continue;
+            }
+            targets.addAll(pool);
+        }
+    }
+
+    private static UpstreamRouter fromConfig(UpstreamClient.Provider provider) {
+        return new UpstreamRouter(provider, ServerConfig.getString("routing." + provider.id() + ".pools", ""));
+    }
+
+    public static UpstreamRouter siliconFlow() {
+        return SILICONFLOW;
+    }
+
+    public static UpstreamRouter ragFlow() {
+        return RAGFLOW;
+    }
+
+    public UpstreamClient.Provider getProvider() {
+        return provider;
+    }
+
+    /**
+     * 在 requested 所在的池里选一个目标调用；requested 不是池的第一个目标时直接调用 requested
+     */
+    public <T> T call(String requested, RoutedCall<T> call) throws Exception {
+        List<Target> pool = requested == null ? null : pools.get(normalize(requested));
+        long deadline = Resilience.newDeadline();
+        if (pool == null) {
+            return call.call(requested, deadline);
+        }
+
+        List<Target> tried = new ArrayList<>(2);
+        while (true) {
+            Target target = choose(pool, tried);
+            tried.add(target);
+            target.picks.increment();
+            target.inFlight.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                T result = call.call(target.name, deadline);
+                target.onSuccess(System.nanoTime() - start);
+                return result;
+            } catch (Exception e) {
+                if (!isTargetFailure(e)) {
+                    // 请求本身的问题（例如 400 / 401），与目标的健康无关
+                    throw e;
+                }
+                target.onFailure();
+                // 最多换一次目标
+                if (!FAILOVER || tried.size() >= Math.min(2, pool.size()) || System.nanoTime() >= deadline) {
+                    throw e;
+                }
+                failovers.increment();
+                EventLog.warn("routing.failover", "pool", target.pool, "target", target.name, "error", e);
+            } finally {
+                target.inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * power of two choices：在未试过的健康目标里随机取两个，选得分低的
+     */
+    private static Target choose(List<Target> pool, List<Target> tried) {
+        Target chosen = pick(pool, tried);
+        chosen.onPicked(System.nanoTime());
+        return chosen;
+    }
+
+    private static Target pick(List<Target> pool, List<Target> tried) {
+        long now = System.nanoTime();
+        List<Target> candidates = new ArrayList<>(pool.size());
+        for (Target target : pool) {
+            if (!tried.contains(target) && target.isAvailable(now)) {
+                candidates.add(target);
+            }
+        }
+        if (candidates.isEmpty()) {
+            for (Target target : pool) {
+                if (!tried.contains(target)) {
+                    candidates.add(target);
+                }
+            }
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        Target a = candidates.get(first);
+        Target b = candidates.get(second);
+        double scoreA = a.score();
+        double scoreB = b.score();
+        if (scoreA != scoreB) {
+            return scoreA < scoreB ? a : b;
+        }
+        return a.index <= b.index ? a : b;
+    }
+
+    /**
+     * 上游不健康（见 Resilience.isFailure）或熔断拒绝
+     */
+    private static boolean isTargetFailure(Exception e) {
+        if (e instanceof HttpStatusException) {
+            return ((HttpStatusException) e).getStatus() == 503;
+        }
+        return Resilience.isFailure(e);
+    }
+
+    private static String normalize(String target) {
+        String trimmed = target.trim();
+        // RAGFlow Base URL 末尾的斜杠不影响匹配
+        while (trimmed.endsWith("/")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        return trimmed;
+    }
+
+    /**
+     * 所有池里的目标（用于导出指标）
+     */
+    public List<Target> targets() {
+        return Collections.unmodifiableList(targets);
+    }
+
+    /**
+     * 选中的目标失败后换目标的次数
+     */
+    public long getFailovers() {
+        return failovers.sum();
+    }
+
+    /**
+     * 池里的一个目标及其延迟 / 错误率统计
+     */
+    public static final class Target {
+        final String pool;
+        final String name;
+        final int index;
+        final LongAdder picks = new LongAdder();
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        // 以下字段在 synchronized (this) 中访问
+        private double latencyNanos;
+        private double errorRate;
+        private boolean sampled;
+        private long lastProbe;
+
+        Target(String pool, String name, int index) {
+            this.pool = pool;
+            this.name = name;
+            this.index = index;
+        }
+
+        synchronized void onSuccess(long nanos) {
+            latencyNanos = sampled ? latencyNanos + ALPHA * (nanos - latencyNanos) : nanos;
+            sampled = true;
+            errorRate = errorRate * (1 - ALPHA);
+        }
+
+        synchronized void onFailure() {
+            errorRate = errorRate + ALPHA * (1 - errorRate);
+        }
+
+        /**
+         * 健康，或者不健康但到了试探的时间
+         */
+        synchronized boolean isAvailable(long now) {
+            return errorRate <= UNHEALTHY_ERROR_RATE || now - lastProbe >= PROBE_INTERVAL_NANOS;
+        }
+
+        /**
+         * 不健康的目标被选中时记为一次试探
+         */
+        synchronized void onPicked(long now) {
+            if (errorRate > UNHEALTHY_ERROR_RATE) {
+                lastProbe = now;
+            }
+        }
+
+        synchronized double score() {
+            return (sampled ? latencyNanos : 1) * (inFlight.get() + 1) * (1 + errorRate * ERROR_PENALTY);
+        }
+
+        public String getPool() {
+            return pool;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getPicks() {
+            return picks.sum();
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        public synchronized long getLatencyMillis() {
+            return TimeUnit.NANOSECONDS.toMillis((long) latencyNanos);
+        }
+
+        /**
+         * 错误率 EWMA（千分比）
+         */
+        public synchronized long getErrorPermille() {
+            return Math.round(errorRate * 1000);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package aurora.backend;
+
+import java.net.http.HttpResponse;
+
+/**
+ * 上游返回了非 200 的状态码
+ * 返回给客户端时仍按 500 处理；Resilience 根据状态码判断是否值得重试
+ */
+public class UpstreamStatusException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+    private final long retryAfterSeconds;
+
+    public UpstreamStatusException(int status, String message, long retryAfterSeconds) {
+        super(message);
+        this.status = status;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * 根据上游响应构造，带上上游给出的 Retry-After（只支持秒数格式）
+     */
+    public static UpstreamStatusException of(HttpResponse<?> response, String message) {
+        long retryAfter = 0;
+        String header = response.headers().firstValue("Retry-After").orElse(null);
+        if (header != null) {
+            try {
+                retryAfter = Math.max(0, Long.parseLong(header.trim()));
+            } catch (NumberFormatException ignored) {
+                // HTTP 日期格式的 Retry-After 按未提供处理
+            }
+        }
+        return new UpstreamStatusException(response.statusCode(), message, retryAfter);
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * 上游建议的等待秒数，0 表示未提供
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * 429 和 5xx 属于暂时性错误，可以重试
+     */
+    public boolean isRetryable() {
+        return status == 429 || status >= 500;
+    }
+}
@@ -0,0 +1,99 @@
+package aurora.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class AdmissionControllerTest {
+
+    private static final UpstreamClient.Provider SF = UpstreamClient.Provider.SILICONFLOW;
+    private static final AdmissionController.LimitConfig UNLIMITED = new AdmissionController.LimitConfig(0, 1, 0);
+
+    private static AdmissionController controller(AdmissionController.LimitConfig key,
+            AdmissionController.LimitConfig provider, int queueSize, int maxKeys) {
+        Map<UpstreamClient.Provider, AdmissionController.LimitConfig> providers = new EnumMap<>(UpstreamClient.Provider.class);
+        for (UpstreamClient.Provider p : UpstreamClient.Provider.values()) {
+            providers.put(p, provider);
+        }
+        return new AdmissionController(true, key, providers, queueSize, 100, maxKeys);
+    }
+
+    @Test
+    void burstIsAdmittedThenRateLimited() throws Exception {
+        AdmissionController admission = controller(new AdmissionController.LimitConfig(1, 2, 0), UNLIMITED, 0, 10);
+        admission.acquire(SF, "a").close();
+        admission.acquire(SF, "a").close();
+        HttpStatusException e = assertThrows(HttpStatusException.class, () -> admission.acquire(SF, "a"));
+        assertEquals(429, e.getStatus());
+        assertEquals(1, admission.getRejectedRate());
+        // 其他 Key 不受影响
+        admission.acquire(SF, "b").close();
+    }
+
+    @Test
+    void waitingAcquireSleepsForTokens() throws Exception {
+        AdmissionController admission = controller(new AdmissionController.LimitConfig(20, 1, 0), UNLIMITED, 0, 10);
+        for (int i = 0; i < 5; i++) {
+            admission.acquire(SF, "a", 1000).close();
+        }
+        assertEquals(5, admission.getAdmitted());
+        assertEquals(0, admission.getRejectedRate());
+        assertEquals(4, admission.getQueued());
+    }
+
+    @Test
+    void waitingAcquireStillRejectsBeyondTheDeadline() {
+        AdmissionController admission = controller(new AdmissionController.LimitConfig(1, 1, 0), UNLIMITED, 0, 10);
+        assertThrows(HttpStatusException.class, () -> {
+            admission.acquire(SF, "a", 50).close();
+            admission.acquire(SF, "a", 50).close();
+        });
+        assertEquals(1, admission.getRejectedRate());
+    }
+
+    @Test
+    void concurrencySlotIsReturnedOnceOnClose() throws Exception {
+        AdmissionController admission = controller(new AdmissionController.LimitConfig(0, 1, 1), UNLIMITED, 0, 10);
+        AdmissionController.Permit permit = admission.acquire(SF, "a");
+        assertThrows(HttpStatusException.class, () -> admission.acquire(SF, "a"));
+        assertEquals(1, admission.getRejectedConcurrency());
+        permit.close();
+        permit.close();
+        AdmissionController.Permit next = admission.acquire(SF, "a");
+        assertThrows(HttpStatusException.class, () -> admission.acquire(SF, "a"));
+        next.close();
+    }
+
+    @Test
+    void providerRejectionRefundsTheKeyToken() throws Exception {
+        AdmissionController admission = controller(new AdmissionController.LimitConfig(0.001, 1, 0),
+            new AdmissionController.LimitConfig(0.001, 1, 0), 0, 10);
+        admission.acquire(SF, "a").close();
+        // 提供商的令牌已经用完，Key b 被拒绝，但它自己的令牌应当退回
+        assertThrows(HttpStatusException.class, () -> admission.acquire(SF, "b"));
+        HttpStatusException e = assertThrows(HttpStatusException.class, () -> admission.acquire(SF, "b"));
+        assertEquals("服务繁忙，请稍后重试", e.getMessage());
+        assertEquals(2, admission.getRejectedRate());
+        assertEquals(2, admission.getTrackedKeys());
+    }
+
+    @Test
+    void busyKeysAreNotEvictedAtTheHardCap() throws Exception {
+        AdmissionController admission = controller(new AdmissionController.LimitConfig(1000, 1, 1), UNLIMITED, 0, 1);
+        AdmissionController.Permit busy = admission.acquire(SF, "a");
+        HttpStatusException e = assertThrows(HttpStatusException.class, () -> admission.acquire(SF, "b"));
+        assertEquals(429, e.getStatus());
+        assertEquals(1, admission.getRejectedKeys());
+        assertEquals(1, admission.getTrackedKeys());
+
+        busy.close();
+        // 令牌桶补满后 a 变为空闲，可以被淘汰
+        Thread.sleep(20);
+        admission.acquire(SF, "b").close();
+        assertEquals(1, admission.getTrackedKeys());
+    }
+}
@@ -0,0 +1,89 @@
+package aurora.backend;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpTimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+class CircuitBreakerTest {
+
+    @Test
+    void opensAfterConsecutiveFailures() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, 60_000);
+        for (int i = 0; i < 2; i++) {
+            breaker.acquire();
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.acquire();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        HttpStatusException rejected = assertThrows(HttpStatusException.class, breaker::acquire);
+        assertEquals(503, rejected.getStatus());
+    }
+
+    @Test
+    void successResetsTheFailureCount() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 2, 60_000);
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void halfOpenAllowsOneProbe() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 20);
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(40);
+
+        breaker.acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertThrows(HttpStatusException.class, breaker::acquire);
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertDoesNotThrow(breaker::acquire);
+    }
+
+    @Test
+    void failedProbeReopens() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 20);
+        breaker.onFailure();
+        Thread.sleep(40);
+        breaker.acquire();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertThrows(HttpStatusException.class, breaker::acquire);
+    }
+
+    @Test
+    void ignoredProbeReleasesTheSlot() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 20);
+        breaker.onFailure();
+        Thread.sleep(40);
+        breaker.acquire();
+        breaker.onIgnored();
+        assertDoesNotThrow(breaker::acquire);
+    }
+
+    @Test
+    void readTimeoutsCountAsFailuresButAreNotRetried() {
+        HttpTimeoutException readTimeout = new HttpTimeoutException("request timed out");
+        assertTrue(Resilience.isFailure(readTimeout));
+        assertFalse(Resilience.isRetryable(readTimeout));
+
+        assertTrue(Resilience.isRetryable(new HttpConnectTimeoutException("connect timed out")));
+        assertTrue(Resilience.isRetryable(new IOException("Connection reset")));
+        assertFalse(Resilience.isFailure(new HttpStatusException(400, "bad request")));
+    }
+}
@@ -0,0 +1,87 @@
+package aurora.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ContentPipelineTest {
+
+    private static final String ENGLISH = "Inflation rose to 3.5 percent in March. Analysts said the increase was "
+        + "driven by energy prices, e.g. the cost of heating oil! Will the central bank act? Some expect a rate "
+        + "rise; others do not.\n\n"
+        + "Markets were calm. Bond yields, i.e. the return on government debt, barely moved.";
+
+    private final ContentPipeline pipeline = new ContentPipeline(true,
+        List.of("html", "whitespace", "dedupe", "truncate"), 16000);
+
+    @Test
+    void defaultStagesKeepEnglishProseUnchanged() {
+        assertEquals(ENGLISH, pipeline.process(ENGLISH).getContent());
+    }
+
+    @Test
+    void sentencesRoundTripWithTheirSeparators() {
+        assertEquals(ENGLISH, String.join("", ContentPipeline.splitSentences(ENGLISH)));
+        assertEquals(ENGLISH, ContentPipeline.dedupe(ENGLISH));
+    }
+
+    @Test
+    void dedupeDropsRepeatedParagraphsAndLongSentences() {
+        String sentence = "The committee will publish its full report next week. ";
+        String text = "Intro paragraph here.\n\nIntro paragraph here.\n\n" + sentence + "Short one. " + sentence + "End.";
+        assertEquals("Intro paragraph here.\n\n" + sentence + "Short one. End.", ContentPipeline.dedupe(text));
+    }
+
+    @Test
+    void plainTextWithAngleBracketsIsNotTreatedAsHtml() {
+        String text = "if a<b and c>d then swap <value>";
+        assertEquals(text, ContentPipeline.stripHtml(text));
+    }
+
+    @Test
+    void htmlDocumentIsStripped() {
+        String html = "<html><head><script>var x = 1;</script></head><body><p>Hello &amp; welcome.</p></body></html>";
+        assertEquals("Hello & welcome.", ContentPipeline.collapseWhitespace(ContentPipeline.stripHtml(html)));
+    }
+
+    @Test
+    void truncateCutsASingleOversizedSegment() {
+        String result = ContentPipeline.truncate("字".repeat(20000), 16000);
+        assertTrue(result.length() > 15000, "length " + result.length());
+        assertTrue(result.endsWith("……"));
+        assertTrue(TokenEstimator.estimate(result) <= 16000);
+    }
+
+    @Test
+    void truncateCutsWhenEveryParagraphIsOverBudget() {
+        String paragraph = "段".repeat(3000);
+        String result = ContentPipeline.truncate(paragraph + "\n\n" + paragraph.replace('段', '落'), 1000);
+        assertTrue(result.startsWith("段".repeat(900)), result.substring(0, 20));
+        assertTrue(TokenEstimator.estimate(result) <= 1000);
+    }
+
+    @Test
+    void truncateStaysWithinBudgetAndKeepsTheLead() {
+        StringBuilder text = new StringBuilder("Headline of the article.");
+        for (int i = 0; i < 200; i++) {
+            text.append("\n\nParagraph ").append(i).append(" talks about topic").append(i)
+                .append(" with some repeated filler words filler words filler words.");
+        }
+        String result = ContentPipeline.truncate(text.toString(), 500);
+        assertTrue(result.startsWith("Headline of the article."));
+        assertTrue(result.contains("……"));
+        assertTrue(TokenEstimator.estimate(result) <= 500);
+    }
+
+    @Test
+    void processNeverSendsOnlyAnEllipsis() {
+        ContentPipeline small = new ContentPipeline(true, List.of("whitespace", "dedupe", "truncate"), 100);
+        String content = small.process("字".repeat(5000)).getContent();
+        assertFalse(content.replace("……", "").isBlank());
+        assertTrue(content.length() > 90);
+    }
+}
@@ -0,0 +1,70 @@
+package aurora.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+class IdleTimeoutInputStreamTest {
+
+    /**
+     * 和 HttpClient 的响应体一样：没有数据时一直阻塞，close 之后 read 立即失败
+     */
+    private static final class StalledStream extends InputStream {
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private boolean first = true;
+
+        @Override
+        public int read() throws IOException {
+            if (first) {
+                first = false;
+                return 'a';
+            }
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("closed");
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    @Test
+    void stalledReadFailsWithTimeout() throws Exception {
+        try (InputStream in = IdleTimeoutInputStream.wrap(new StalledStream(), 100)) {
+            assertEquals('a', in.read());
+            long start = System.nanoTime();
+            assertThrows(HttpTimeoutException.class, in::read);
+            assertTrue(System.nanoTime() - start < 2_000_000_000L);
+        }
+    }
+
+    @Test
+    void timeBetweenReadsIsNotIdle() throws Exception {
+        try (InputStream in = IdleTimeoutInputStream.wrap(new ByteArrayInputStream(new byte[] { 1, 2 }), 50)) {
+            assertEquals(1, in.read());
+            Thread.sleep(150);
+            assertEquals(2, in.read());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void zeroTimeoutLeavesTheStreamUnwrapped() {
+        InputStream raw = new ByteArrayInputStream(new byte[0]);
+        assertSame(raw, IdleTimeoutInputStream.wrap(raw, 0));
+    }
+}
@@ -0,0 +1,106 @@
+package aurora.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JobLogTest {
+
+    private static final long DAY = 24 * 60 * 60_000L;
+
+    @TempDir
+    Path dir;
+
+    private JobLog open(Path file) {
+        return new JobLog(file.toString(), 64 * 1024, 8L * 1024 * 1024, DAY);
+    }
+
+    private static JSONObject record(String id, String status, long updatedAt) {
+        JSONObject record = new JSONObject();
+        record.put("id", id);
+        record.put("keyId", Hashing.keyId("key"));
+        record.put("status", status);
+        record.put("updatedAt", updatedAt);
+        return record;
+    }
+
+    @Test
+    void replayKeepsTheLatestRecordOfEachJob() {
+        Path file = dir.resolve("jobs.log");
+        long now = System.currentTimeMillis();
+        JobLog log = open(file);
+        log.append(record("a", SummaryJobs.QUEUED, now));
+        log.append(record("a", SummaryJobs.RUNNING, now));
+        log.append(record("a", SummaryJobs.DONE, now).put("summary", "ok"));
+        log.append(record("b", SummaryJobs.QUEUED, now));
+
+        JobLog reopened = open(file);
+        assertEquals(2, reopened.size());
+        assertEquals(SummaryJobs.DONE, reopened.get("a").getString("status"));
+        assertEquals("ok", reopened.get("a").getString("summary"));
+        assertEquals(List.of("b"), reopened.unfinished());
+    }
+
+    @Test
+    void replayStopsAtATornRecord() throws IOException {
+        Path file = dir.resolve("jobs.log");
+        long now = System.currentTimeMillis();
+        JobLog log = open(file);
+        log.append(record("a", SummaryJobs.DONE, now));
+        long end = log.sizeInBytes();
+        log.append(record("b", SummaryJobs.DONE, now));
+
+        // 模拟写到一半时进程退出：第二条记录的内容被破坏
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.seek(end + 12);
+            raw.write('#');
+        }
+
+        JobLog reopened = open(file);
+        assertNotNull(reopened.get("a"));
+        assertNull(reopened.get("b"));
+        assertEquals(end, reopened.sizeInBytes());
+    }
+
+    @Test
+    void expiredJobsAreDroppedOnReplay() {
+        Path file = dir.resolve("jobs.log");
+        long now = System.currentTimeMillis();
+        JobLog log = open(file);
+        log.append(record("old", SummaryJobs.DONE, now - 2 * DAY));
+        log.append(record("new", SummaryJobs.DONE, now));
+
+        JobLog reopened = open(file);
+        assertNull(reopened.get("old"));
+        assertNotNull(reopened.get("new"));
+    }
+
+    @Test
+    void unfinishedJobsAreFailedAfterRestart() throws Exception {
+        Path file = dir.resolve("jobs.log");
+        JobLog log = open(file);
+        log.append(record("interrupted", SummaryJobs.RUNNING, System.currentTimeMillis()));
+
+        SummaryJobs jobs = new SummaryJobs(open(file), 1, 1, 0, 1, 1);
+        JSONObject job = jobs.get("interrupted", "key", 0);
+        assertEquals(SummaryJobs.FAILED, job.getString("status"));
+        assertEquals(503, job.getInt("errorStatus"));
+    }
+
+    @Test
+    void emptyPathKeepsJobsInMemory() {
+        JobLog log = new JobLog("", 64 * 1024, 8L * 1024 * 1024, DAY);
+        log.append(record("a", SummaryJobs.DONE, System.currentTimeMillis()));
+        assertEquals(SummaryJobs.DONE, log.get("a").getString("status"));
+        assertEquals(0, log.sizeInBytes());
+    }
+}
@@ -0,0 +1,38 @@
+package aurora.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONException;
+import org.junit.jupiter.api.Test;
+
+class JsonCodecTest {
+
+    private static InputStream body(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void extractsMessageContentWithEscapes() throws IOException {
+        String json = "{\"id\":\"x\",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\","
+            + "\"content\":\"a\\n\\u4f60\\u597d \\\"b\\\"\"}}],\"usage\":{\"total_tokens\":3}}";
+        assertEquals("a\n你好 \"b\"", JsonCodec.extractMessageContent(body(json)));
+    }
+
+    @Test
+    void invalidUnicodeEscapeIsRejected() {
+        String json = "{\"choices\":[{\"message\":{\"content\":\"\\u00zz\"}}]}";
+        assertThrows(JSONException.class, () -> JsonCodec.extractMessageContent(body(json)));
+    }
+
+    @Test
+    void truncatedUnicodeEscapeIsRejected() {
+        String json = "{\"choices\":[{\"message\":{\"content\":\"\\u4f";
+        assertThrows(JSONException.class, () -> JsonCodec.extractMessageContent(body(json)));
+    }
+}
@@ -0,0 +1,65 @@
+package aurora.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SummaryCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private SummaryCache open(Path file, int maxEntries) {
+        return new SummaryCache(true, maxEntries, 16L * 1024 * 1024, file.toString());
+    }
+
+    @Test
+    void journalIsReplayedAfterRestart() {
+        Path file = dir.resolve("cache.jsonl");
+        SummaryCache cache = open(file, 100);
+        cache.put("a", "第一版");
+        cache.put("b", "总结 b");
+        cache.put("a", "第二版");
+
+        SummaryCache reopened = open(file, 100);
+        assertEquals(2, reopened.size());
+        assertEquals("第二版", reopened.get("a"));
+        assertEquals("总结 b", reopened.get("b"));
+    }
+
+    @Test
+    void tornLastLineIsSkipped() throws IOException {
+        Path file = dir.resolve("cache.jsonl");
+        open(file, 100).put("a", "完整的记录");
+        Files.writeString(file, "{\"k\":\"b\",\"v\":\"写到一", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        SummaryCache reopened = open(file, 100);
+        assertEquals("完整的记录", reopened.get("a"));
+        assertNull(reopened.get("b"));
+        // 回放后文件被重写，不完整的行不会留到下一次
+        assertEquals(1, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    void replayKeepsTheEntryLimit() throws IOException {
+        Path file = dir.resolve("cache.jsonl");
+        SummaryCache cache = open(file, 100);
+        for (int i = 0; i < 10; i++) {
+            cache.put("k" + i, "v" + i);
+        }
+
+        SummaryCache reopened = open(file, 3);
+        assertEquals(3, reopened.size());
+        assertNull(reopened.get("k0"));
+        assertEquals("v9", reopened.get("k9"));
+        assertEquals(3, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+    }
+}